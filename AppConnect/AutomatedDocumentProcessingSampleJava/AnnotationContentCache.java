@@ -0,0 +1,325 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Cache of the KVPTables parsed from annotation content, keyed by object
+ * store, annotation id and content element sequence number. An annotation
+ * content element does not change once written, so entries do not expire;
+ * they are evicted least recently used first when the cache exceeds
+ * {@code ANNOTATION_CACHE_MAX_BYTES}.
+ * 
+ * {@code ANNOTATION_CACHE_STORAGE} selects how the tables are stored:
+ * <ul>
+ * <li>HEAP - the parsed JSONArray, shared by all callers, which must not
+ * modify it; its size is an estimate of the heap retained by the tree of
+ * JSON objects, several times its serialized size</li>
+ * <li>COMPACT - the serialized JSON in a byte array, parsed on each hit</li>
+ * <li>OFFHEAP - the serialized JSON in a direct buffer outside the Java heap,
+ * parsed on each hit</li>
+ * </ul>
+ * In the serialized forms the size of an entry is the size of the UTF-8 JSON.
+ * 
+ * The cache is disabled by default: a document usually arrives once, so most
+ * lookups miss, and each miss pays for storing the table. Enable it when the
+ * same annotations are processed again, for example when documents are
+ * reprocessed.
+ */
+public class AnnotationContentCache
+{
+    enum Storage
+    {
+        HEAP, COMPACT, OFFHEAP
+    }
+
+    private static final boolean ENABLED = CSServerInfo.getBoolean("ANNOTATION_CACHE_ENABLED", false);
+    private static final long MAX_BYTES = CSServerInfo.getLong("ANNOTATION_CACHE_MAX_BYTES", 67108864);
+    private static final Storage STORAGE = storage(CSServerInfo.getString("ANNOTATION_CACHE_STORAGE"));
+
+    /**
+     * Cached KVPTable, in one of the storage forms
+     */
+    private static final class Entry
+    {
+        final Object value;
+        final long size;
+
+        Entry(Object value, long size)
+        {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    private static final ReentrantLock lock = new ReentrantLock();
+
+    // Access ordered, the eldest entry is the least recently used
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+    private static long bytes = 0;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Returns true if annotation content is cached
+     */
+    public static boolean isEnabled()
+    {
+        return ENABLED && MAX_BYTES > 0;
+    }
+
+    /**
+     * Returns the key of an annotation content element
+     */
+    public static String keyOf(String repositoryId, String annotationId, Integer elemSeqNbr)
+    {
+        return repositoryId + '|' + annotationId + '|' + elemSeqNbr;
+    }
+
+    /**
+     * Returns the cached KVPTable of an annotation content element
+     * 
+     * @param key
+     *            key of the content element, see {@link #keyOf(String, String, Integer)}
+     * @return The KVPTable, or null if it is not cached
+     */
+    public static JSONArray get(String key)
+    {
+        Entry entry;
+        lock.lock();
+        try
+        {
+            entry = entries.get(key);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if (entry == null)
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+
+        // Deserialize outside the lock
+        switch (STORAGE)
+        {
+        case HEAP:
+            return (JSONArray) entry.value;
+        case OFFHEAP:
+            ByteBuffer buffer = ((ByteBuffer) entry.value).duplicate();
+            byte[] json = new byte[buffer.remaining()];
+            buffer.get(json);
+            return new JSONArray(new String(json, StandardCharsets.UTF_8));
+        default:
+            return new JSONArray(new String((byte[]) entry.value, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Caches the KVPTable of an annotation content element. Tables larger than
+     * the whole cache are not cached.
+     * 
+     * @param key
+     *            key of the content element, see {@link #keyOf(String, String, Integer)}
+     * @param jsonKVPTable
+     *            KVPTable of the content element
+     */
+    public static void put(String key, JSONArray jsonKVPTable)
+    {
+        if (STORAGE == Storage.HEAP)
+        {
+            long size = heapSize(jsonKVPTable);
+            if (size <= MAX_BYTES)
+            {
+                add(key, new Entry(jsonKVPTable, size));
+            }
+            return;
+        }
+
+        byte[] json = jsonKVPTable.toString().getBytes(StandardCharsets.UTF_8);
+        if (json.length > MAX_BYTES)
+        {
+            return;
+        }
+
+        Object value;
+        switch (STORAGE)
+        {
+        case OFFHEAP:
+            ByteBuffer buffer = ByteBuffer.allocateDirect(json.length);
+            buffer.put(json);
+            buffer.flip();
+            value = buffer.asReadOnlyBuffer();
+            break;
+        default:
+            value = json;
+        }
+        add(key, new Entry(value, json.length));
+    }
+
+    private static void add(String key, Entry entry)
+    {
+        lock.lock();
+        try
+        {
+            Entry previous = entries.put(key, entry);
+            if (previous != null)
+            {
+                bytes -= previous.size;
+            }
+            bytes += entry.size;
+
+            // Evict least recently used entries
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (bytes > MAX_BYTES && it.hasNext())
+            {
+                Entry eldest = it.next().getValue();
+                it.remove();
+                bytes -= eldest.size;
+                evictions.incrementAndGet();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the fraction of lookups answered from the cache
+     */
+    public static double getHitRatio()
+    {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Returns a description of the cache counters, for logging.
+     */
+    public static String getStats()
+    {
+        int size;
+        long used;
+        lock.lock();
+        try
+        {
+            size = entries.size();
+            used = bytes;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return "storage: " + STORAGE + ", entries: " + size + ", bytes: " + used + "/" + MAX_BYTES + 
+               ", hits: " + hits.get() + ", misses: " + misses.get() + ", evictions: " + evictions.get() + 
+               String.format(", hit ratio: %.3f", getHitRatio());
+    }
+
+    /**
+     * Estimates the heap retained by a parsed JSON value, for a 64-bit JVM
+     * with compressed references: object headers, the HashMap of each
+     * JSONObject, the ArrayList of each JSONArray, and strings as char arrays.
+     */
+    static long heapSize(Object value)
+    {
+        if (value instanceof String)
+        {
+            return 40 + 2L * ((String) value).length();
+        }
+        if (value instanceof JSONObject)
+        {
+            JSONObject object = (JSONObject) value;
+            int size = object.length();
+            int capacity = 16;
+            while (capacity * 3 / 4 < size)
+            {
+                capacity <<= 1;
+            }
+
+            // JSONObject, HashMap, table, and a node per entry
+            long bytes = 16 + 48 + 16 + 4L * capacity + 32L * size;
+            for (String name : object.keySet())
+            {
+                bytes += heapSize(name) + heapSize(object.opt(name));
+            }
+            return bytes;
+        }
+        if (value instanceof JSONArray)
+        {
+            JSONArray array = (JSONArray) value;
+
+            // JSONArray, ArrayList and its element array
+            long bytes = 16 + 24 + 16 + 4L * array.length();
+            for (Object item : array)
+            {
+                bytes += heapSize(item);
+            }
+            return bytes;
+        }
+        if (value == null || value == JSONObject.NULL || value instanceof Boolean)
+        {
+            // Shared instances
+            return 0;
+        }
+        if (value instanceof Integer)
+        {
+            return 16;
+        }
+        if (value instanceof Number)
+        {
+            return (value instanceof Long || value instanceof Double) ? 24 : 40;
+        }
+        return 16;
+    }
+
+    private static Storage storage(String value)
+    {
+        if (value != null && value.trim().length() > 0)
+        {
+            try
+            {
+                return Storage.valueOf(value.trim().toUpperCase());
+            }
+            catch (IllegalArgumentException e)
+            {
+                Logger.warn("AnnotationContentCache: ", "Invalid ANNOTATION_CACHE_STORAGE value " + value + ", using COMPACT");
+            }
+        }
+        return Storage.COMPACT;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Downloads the KVPTables of every annotation content element of a document
+ * concurrently and merges them in page order: annotations in the order
+ * returned by the GraphQL API, content elements by sequence number, and the
+ * pages of each content element in order.
+ * 
+ * Downloads run on an executor shared by all events, with at most
+ * {@code ANNOTATION_FANOUT_PARALLELISM} downloads in flight per event, so the
+ * latency of an event tracks its slowest download rather than the sum. If
+ * the executor has not been started, the downloads run sequentially on the
+ * calling thread.
+ * 
+ * With {@code VIRTUAL_THREADS_ENABLED} each download runs on a virtual
+ * thread, at most {@code ANNOTATION_FANOUT_THREADS} at once, see
+ * {@link VirtualThreads}.
+ */
+public class AnnotationFanOut
+{
+    private static final boolean ENABLED = CSServerInfo.getBoolean("ANNOTATION_FANOUT_ENABLED", false);
+    private static final int PARALLELISM = Math.max(1, CSServerInfo.getInt("ANNOTATION_FANOUT_PARALLELISM", 4));
+    private static final int THREADS = Math.max(1, CSServerInfo.getInt("ANNOTATION_FANOUT_THREADS", 16));
+
+    /**
+     * Reference to an annotation content element
+     */
+    public static final class AnnotationRef
+    {
+        public final String annotationId;
+        public final int elemSeqNbr;
+
+        AnnotationRef(String annotationId, int elemSeqNbr)
+        {
+            this.annotationId = annotationId;
+            this.elemSeqNbr = elemSeqNbr;
+        }
+
+        @Override
+        public String toString()
+        {
+            return annotationId + "/" + elemSeqNbr;
+        }
+    }
+
+    private static final Object lock = new Object();
+    private static ExecutorService executor;
+    private static int references = 0;
+
+    /**
+     * Returns true if all annotation content elements are downloaded
+     */
+    public static boolean isEnabled()
+    {
+        return ENABLED;
+    }
+
+    /**
+     * Starts the shared download executor if this is the first reference.
+     */
+    public static void acquire()
+    {
+        synchronized (lock)
+        {
+            references++;
+            if (executor == null)
+            {
+                executor = VirtualThreads.newExecutor("AnnotationFanOut", THREADS, 0);
+            }
+        }
+    }
+
+    /**
+     * Releases a reference taken by {@link #acquire()}. The executor is shut
+     * down when the last reference is released.
+     */
+    public static void release()
+    {
+        synchronized (lock)
+        {
+            if (references > 0)
+            {
+                references--;
+            }
+
+            if (references == 0 && executor != null)
+            {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the annotation content elements in a {@code GET_DOC_ANNOTATIONS}
+     * response, in page order.
+     * 
+     * @param jsonGraphQLAnno
+     *            response of the annotation query
+     * @return The content elements, empty if the document has no annotations
+     */
+    public static List<AnnotationRef> parseAnnotationRefs(JSONObject jsonGraphQLAnno)
+    {
+        List<AnnotationRef> refs = new ArrayList<AnnotationRef>();
+
+        JSONArray jsonAnnos = jsonGraphQLAnno.getJSONObject("data").getJSONObject("document")
+                .getJSONObject("annotations").getJSONArray("annotations");
+
+        for (int i = 0; i < jsonAnnos.length(); i++)
+        {
+            JSONObject annot = jsonAnnos.getJSONObject(i);
+            String annotationId = annot.getString("id");
+            JSONArray jsonContentElements = annot.optJSONArray("contentElements");
+            if (jsonContentElements == null)
+            {
+                continue;
+            }
+
+            List<AnnotationRef> elements = new ArrayList<AnnotationRef>(jsonContentElements.length());
+            for (int j = 0; j < jsonContentElements.length(); j++)
+            {
+                elements.add(new AnnotationRef(annotationId, jsonContentElements.getJSONObject(j).getInt("elementSequenceNumber")));
+            }
+            Collections.sort(elements, (a, b) -> Integer.compare(a.elemSeqNbr, b.elemSeqNbr));
+            refs.addAll(elements);
+        }
+
+        return refs;
+    }
+
+    /**
+     * Downloads the KVPTables of the given content elements and merges them
+     * in order.
+     * 
+     * @param objectStoreId
+     *            repository Id from where to retrieve the annotations
+     * @param refs
+     *            content elements to download, in page order
+     * @return The merged KVPTable, or null if no content element has one
+     * @throws Exception
+     *             the first failure of a download, including a response other
+     *             than 200, so that a partial KVPTable is never returned; the
+     *             other downloads are cancelled
+     */
+    public static JSONArray downloadAll(String objectStoreId, List<AnnotationRef> refs) throws Exception
+    {
+        String method = "AnnotationFanOut.downloadAll: ";
+
+        ExecutorService shared;
+        synchronized (lock)
+        {
+            shared = executor;
+        }
+
+        List<JSONArray> tables = new ArrayList<JSONArray>(refs.size());
+        if (shared == null || refs.size() == 1)
+        {
+            for (AnnotationRef ref : refs)
+            {
+                tables.add(HttpDownloadUtil.getAnnotationContent(objectStoreId, ref.annotationId, ref.elemSeqNbr, true));
+            }
+            return merge(tables);
+        }
+
+        Logger.debug(method, () -> "Downloading " + refs.size() + " content elements: " + refs);
+
+        // Per event cap on downloads in flight
+        Semaphore permits = new Semaphore(PARALLELISM);
+        List<Future<JSONArray>> futures = new ArrayList<Future<JSONArray>>(refs.size());
+        try
+        {
+            for (AnnotationRef ref : refs)
+            {
+                permits.acquire();
+                try
+                {
+                    futures.add(shared.submit(() -> {
+                        try
+                        {
+                            return HttpDownloadUtil.getAnnotationContent(objectStoreId, ref.annotationId, ref.elemSeqNbr, true);
+                        }
+                        finally
+                        {
+                            permits.release();
+                        }
+                    }));
+                }
+                catch (RuntimeException e)
+                {
+                    permits.release();
+                    throw e;
+                }
+            }
+
+            for (Future<JSONArray> future : futures)
+            {
+                tables.add(future.get());
+            }
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+        catch (CancellationException e)
+        {
+            throw new IllegalStateException("Annotation download cancelled", e);
+        }
+        finally
+        {
+            for (Future<JSONArray> future : futures)
+            {
+                future.cancel(true);
+            }
+        }
+
+        return merge(tables);
+    }
+
+    private static JSONArray merge(List<JSONArray> tables)
+    {
+        JSONArray jsonKVPTable = null;
+        for (JSONArray table : tables)
+        {
+            // A content element without a KVPTable; a failed download throws instead
+            if (table == null)
+            {
+                continue;
+            }
+            if (jsonKVPTable == null)
+            {
+                jsonKVPTable = new JSONArray();
+            }
+            for (Object kvp : table)
+            {
+                jsonKVPTable.put(kvp);
+            }
+        }
+        return jsonKVPTable;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Collects concurrent document lookups for the same object store into one
+ * aliased GraphQL call, for bursts of webhooks such as when a batch of
+ * documents finishes processing.
+ * 
+ * The first lookup for an object store opens a batch and waits up to
+ * {@code GRAPHQL_BATCH_MAX_WAIT_MS} for other lookups to join it, or until it
+ * holds {@code GRAPHQL_BATCH_MAX_SIZE} documents. It then sends the batch
+ * with {@link GraphQLQuery#batched(int, String)} and hands each waiting
+ * caller a response in the shape of an unbatched call,
+ * {@code {"data":{"document":...}}} with the errors for its document. A
+ * batch of one document is sent with the unbatched query. The batch is sent
+ * even if the first lookup is interrupted while it waits, and the other
+ * lookups wait at most {@code GRAPHQL_BATCH_RESULT_TIMEOUT_MS} for it.
+ * 
+ * Batching is opt-in with {@code GRAPHQL_BATCH_ENABLED}; when disabled each
+ * lookup calls the GraphQL API directly.
+ */
+public class AnnotationLookupBatcher
+{
+    private static final boolean ENABLED = CSServerInfo.getBoolean("GRAPHQL_BATCH_ENABLED", false);
+    private static final int MAX_SIZE = CSServerInfo.getInt("GRAPHQL_BATCH_MAX_SIZE", 25);
+    private static final long MAX_WAIT_MS = CSServerInfo.getLong("GRAPHQL_BATCH_MAX_WAIT_MS", 20);
+    private static final long RESULT_TIMEOUT_MS = CSServerInfo.getLong("GRAPHQL_BATCH_RESULT_TIMEOUT_MS", 60000);
+
+    private static final String SHARED_VARIABLE = "repositoryIdentifier";
+
+    /**
+     * Lookups waiting for one call to the GraphQL API
+     */
+    private static final class Batch
+    {
+        final String objectStoreId;
+
+        // Waiting callers per document, in the order of the aliases
+        final LinkedHashMap<String, List<CompletableFuture<JSONObject>>> documents = new LinkedHashMap<String, List<CompletableFuture<JSONObject>>>();
+        final CountDownLatch full = new CountDownLatch(1);
+        boolean closed = false;
+
+        Batch(String objectStoreId)
+        {
+            this.objectStoreId = objectStoreId;
+        }
+    }
+
+    private final GraphQLQuery query;
+    private final ConcurrentHashMap<Integer, GraphQLQuery> batchedQueries = new ConcurrentHashMap<Integer, GraphQLQuery>();
+
+    private final Object lock = new Object();
+    private final Map<String, Batch> open = new HashMap<String, Batch>();
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong calls = new AtomicLong();
+
+    /**
+     * @param query
+     *            document query, declaring the variables repositoryIdentifier
+     *            and identifier
+     */
+    public AnnotationLookupBatcher(GraphQLQuery query)
+    {
+        this.query = query;
+    }
+
+    /**
+     * Looks up a document, in a batch with concurrent lookups for the same
+     * object store when batching is enabled
+     * 
+     * @param objectStoreId
+     *            name or GUID of the object store
+     * @param documentId
+     *            GUID of the document
+     * @return Response for the document, as returned by an unbatched call
+     * @throws TimeoutException
+     *             if the batch was not answered within
+     *             {@code GRAPHQL_BATCH_RESULT_TIMEOUT_MS}
+     * @throws Exception
+     */
+    public JSONObject lookup(String objectStoreId, String documentId) throws Exception
+    {
+        lookups.incrementAndGet();
+        if (!ENABLED || MAX_SIZE <= 1)
+        {
+            calls.incrementAndGet();
+            return GraphQLAPIUtil.callGraphQLAPI(query, false, objectStoreId, documentId);
+        }
+
+        CompletableFuture<JSONObject> result = new CompletableFuture<JSONObject>();
+        Batch batch;
+        boolean leader = false;
+
+        synchronized (lock)
+        {
+            batch = open.get(objectStoreId);
+            if (batch == null)
+            {
+                batch = new Batch(objectStoreId);
+                open.put(objectStoreId, batch);
+                leader = true;
+            }
+
+            List<CompletableFuture<JSONObject>> waiting = batch.documents.get(documentId);
+            if (waiting == null)
+            {
+                waiting = new ArrayList<CompletableFuture<JSONObject>>(1);
+                batch.documents.put(documentId, waiting);
+            }
+            waiting.add(result);
+
+            if (batch.documents.size() >= MAX_SIZE)
+            {
+                close(batch);
+            }
+        }
+
+        if (leader)
+        {
+            try
+            {
+                batch.full.await(MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+            }
+            finally
+            {
+                // Also when interrupted, so that the batch does not stay open with lookups waiting on it
+                synchronized (lock)
+                {
+                    close(batch);
+                }
+                send(batch);
+            }
+        }
+
+        try
+        {
+            return result.get(RESULT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Returns a description of the batching counters, for logging.
+     */
+    public String getStats()
+    {
+        long l = lookups.get();
+        long c = calls.get();
+        return "lookups: " + l + ", calls: " + c + String.format(", lookups per call: %.2f", c == 0 ? 0.0 : (double) l / c);
+    }
+
+    /**
+     * Stops the batch from taking more lookups. Called holding the lock.
+     */
+    private void close(Batch batch)
+    {
+        if (!batch.closed)
+        {
+            batch.closed = true;
+            open.remove(batch.objectStoreId);
+            batch.full.countDown();
+        }
+    }
+
+    /**
+     * Calls the GraphQL API for a closed batch and completes its lookups
+     */
+    private void send(Batch batch)
+    {
+        String method = "AnnotationLookupBatcher.send: ";
+        List<String> documentIds = new ArrayList<String>(batch.documents.keySet());
+        int count = documentIds.size();
+        calls.incrementAndGet();
+
+        try
+        {
+            if (count == 1)
+            {
+                complete(batch.documents.get(documentIds.get(0)), GraphQLAPIUtil.callGraphQLAPI(query, false, batch.objectStoreId, documentIds.get(0)));
+                return;
+            }
+
+            GraphQLQuery batched = batchedQueries.get(count);
+            if (batched == null)
+            {
+                batched = query.batched(count, SHARED_VARIABLE);
+                batchedQueries.putIfAbsent(count, batched);
+            }
+
+            String[] values = new String[count + 1];
+            values[0] = batch.objectStoreId;
+            for (int i = 0; i < count; i++)
+            {
+                values[i + 1] = documentIds.get(i);
+            }
+
+            Logger.debug(method, () -> "objectStoreId: " + batch.objectStoreId + ", documents: " + count);
+            JSONObject jsonGraphQLResponse = GraphQLAPIUtil.callGraphQLAPI(batched, false, values);
+
+            for (int i = 0; i < count; i++)
+            {
+                complete(batch.documents.get(documentIds.get(i)), split(jsonGraphQLResponse, "a" + i));
+            }
+        }
+        catch (Exception e)
+        {
+            Logger.error(method, "Batched lookup failed for objectStoreId: " + batch.objectStoreId, e);
+            fail(batch, e);
+        }
+        catch (Error e)
+        {
+            fail(batch, e);
+            throw e;
+        }
+    }
+
+    private static void fail(Batch batch, Throwable e)
+    {
+        for (List<CompletableFuture<JSONObject>> waiting : batch.documents.values())
+        {
+            for (CompletableFuture<JSONObject> result : waiting)
+            {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static void complete(List<CompletableFuture<JSONObject>> waiting, JSONObject jsonResponse)
+    {
+        for (CompletableFuture<JSONObject> result : waiting)
+        {
+            result.complete(jsonResponse);
+        }
+    }
+
+    /**
+     * Returns the part of a batched response for one alias, in the shape of
+     * an unbatched response. Errors are kept if their path starts at the
+     * alias, or if they have no path.
+     */
+    static JSONObject split(JSONObject jsonGraphQLResponse, String alias)
+    {
+        JSONObject jsonResponse = new JSONObject();
+
+        JSONObject data = jsonGraphQLResponse.optJSONObject("data");
+        if (data != null)
+        {
+            JSONObject document = new JSONObject();
+            document.put("document", data.has(alias) ? data.get(alias) : JSONObject.NULL);
+            jsonResponse.put("data", document);
+        }
+
+        JSONArray errors = jsonGraphQLResponse.optJSONArray("errors");
+        if (errors != null)
+        {
+            JSONArray documentErrors = new JSONArray();
+            for (int i = 0; i < errors.length(); i++)
+            {
+                JSONObject error = errors.optJSONObject(i);
+                JSONArray path = error == null ? null : error.optJSONArray("path");
+                if (path == null || path.length() == 0)
+                {
+                    documentErrors.put(errors.get(i));
+                }
+                else if (alias.equals(path.optString(0)))
+                {
+                    JSONObject documentError = new JSONObject(error.toString());
+                    documentError.getJSONArray("path").put(0, "document");
+                    documentErrors.put(documentError);
+                }
+            }
+            if (documentErrors.length() > 0)
+            {
+                jsonResponse.put("errors", documentErrors);
+            }
+        }
+
+        return jsonResponse;
+    }
+}
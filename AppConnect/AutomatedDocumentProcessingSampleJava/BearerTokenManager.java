@@ -0,0 +1,292 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Caches the UMS bearer tokens of {@link CPEClientAccount} and
+ * {@link CPEServiceAccount} with their expiry time.
+ * 
+ * Reads on the hot path are a single volatile read of the cached token. The
+ * token is renewed in the background before it expires, and when a token does
+ * expire only one thread logs in to the identity provider while the other
+ * callers wait for that renewal (single-flight).
+ * 
+ * Renewals run on the manager's refresher thread when it has been started with
+ * {@link #acquire()}, otherwise on the first caller that finds the token
+ * expired.
+ */
+public class BearerTokenManager
+{
+    private static final long EXPIRY_MARGIN_MS = CSServerInfo.getLong("CS_TOKEN_EXPIRY_MARGIN_MS", 60000);
+    private static final long REFRESH_AHEAD_MS = CSServerInfo.getLong("CS_TOKEN_REFRESH_AHEAD_MS", 300000);
+    private static final long DEFAULT_TTL_MS = CSServerInfo.getLong("CS_TOKEN_DEFAULT_TTL_MS", 600000);
+    private static final long RENEW_TIMEOUT_MS = CSServerInfo.getLong("CS_TOKEN_RENEW_TIMEOUT_MS", 30000);
+
+    private static final BearerTokenManager CLIENT = new BearerTokenManager("CPEClientAccount",
+            () -> CPEClientAccount.getInstance().getBearerToken(),
+            () -> CPEClientAccount.getInstance().getAccessTokenExpiryTime());
+
+    private static final BearerTokenManager SERVICE = new BearerTokenManager("CPEServiceAccount",
+            () -> CPEServiceAccount.getInstance().getBearerToken(),
+            () -> CPEServiceAccount.getInstance().getAccessTokenExpiryTime());
+
+    private static final Object lock = new Object();
+    private static ScheduledExecutorService refresher;
+    private static int references = 0;
+
+    /**
+     * Cached token with the times at which it should be refreshed and at which
+     * it must no longer be used.
+     */
+    private static final class Token
+    {
+        final String value;
+        final long refreshAt;
+        final long expiresAt;
+
+        Token(String value, long refreshAt, long expiresAt)
+        {
+            this.value = value;
+            this.refreshAt = refreshAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final String name;
+    private final Supplier<String> tokenSource;
+    private final LongSupplier expirySource;
+
+    private volatile Token token;
+    private final AtomicReference<CompletableFuture<Token>> renewal = new AtomicReference<CompletableFuture<Token>>();
+
+    private BearerTokenManager(String name, Supplier<String> tokenSource, LongSupplier expirySource)
+    {
+        this.name = name;
+        this.tokenSource = tokenSource;
+        this.expirySource = expirySource;
+    }
+
+    /**
+     * Returns the bearer token for Content Services calls.
+     * 
+     * @param bAdminUser
+     *            true to use the CPEServiceAccount, false to use the
+     *            CPEClientAccount
+     * @return the bearer token
+     * @throws Exception
+     *             if the token could not be retrieved
+     */
+    public static String getBearerToken(boolean bAdminUser) throws Exception
+    {
+        long start = StageMetrics.start();
+        try
+        {
+            return (bAdminUser ? SERVICE : CLIENT).getBearerToken();
+        }
+        finally
+        {
+            StageMetrics.record(StageMetrics.Stage.TOKEN, start);
+        }
+    }
+
+    /**
+     * Starts the background refresher thread if this is the first reference.
+     */
+    public static void acquire()
+    {
+        synchronized (lock)
+        {
+            references++;
+            if (refresher == null)
+            {
+                refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "BearerTokenManager");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+        }
+    }
+
+    /**
+     * Releases a reference taken by {@link #acquire()}. The refresher thread is
+     * stopped when the last reference is released; cached tokens are kept.
+     */
+    public static void release()
+    {
+        synchronized (lock)
+        {
+            if (references > 0)
+            {
+                references--;
+            }
+
+            if (references == 0 && refresher != null)
+            {
+                refresher.shutdownNow();
+                refresher = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the cached token, renewing it if it has expired. A token that is
+     * due for refresh but not yet expired is returned while it is renewed in
+     * the background.
+     */
+    public String getBearerToken() throws Exception
+    {
+        Token current = token;
+        long now = System.currentTimeMillis();
+
+        if (current != null && now < current.expiresAt)
+        {
+            if (now >= current.refreshAt)
+            {
+                renew();
+            }
+            return current.value;
+        }
+
+        try
+        {
+            return renew().get(RENEW_TIMEOUT_MS, TimeUnit.MILLISECONDS).value;
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            throw e;
+        }
+        catch (TimeoutException e)
+        {
+            throw new RuntimeException("Timed out waiting for " + name + " bearer token renewal", e);
+        }
+    }
+
+    /**
+     * Starts a renewal unless one is already in progress, and returns the
+     * renewal in progress.
+     */
+    private CompletableFuture<Token> renew()
+    {
+        while (true)
+        {
+            CompletableFuture<Token> inProgress = renewal.get();
+            if (inProgress != null)
+            {
+                return inProgress;
+            }
+
+            CompletableFuture<Token> mine = new CompletableFuture<Token>();
+            if (renewal.compareAndSet(null, mine))
+            {
+                Runnable task = () -> fetch(mine);
+
+                ScheduledExecutorService executor;
+                synchronized (lock)
+                {
+                    executor = refresher;
+                }
+
+                if (executor != null)
+                {
+                    executor.execute(task);
+                }
+                else
+                {
+                    task.run();
+                }
+                return mine;
+            }
+        }
+    }
+
+    private void fetch(CompletableFuture<Token> result)
+    {
+        String method = "BearerTokenManager.fetch: ";
+
+        try
+        {
+            String value = tokenSource.get();
+            if ( (value == null) || (value.length() == 0) )
+            {
+                throw new RuntimeException("Failed to retrieve valid bearerToken for " + name);
+            }
+
+            long now = System.currentTimeMillis();
+            long expiry = expirySource.getAsLong();
+            long expiresAt = (expiry > now) ? expiry - EXPIRY_MARGIN_MS : now + DEFAULT_TTL_MS;
+            if (expiresAt <= now)
+            {
+                expiresAt = now + Math.min(DEFAULT_TTL_MS, expiry - now);
+            }
+            long refreshAt = Math.max(now + (expiresAt - now) / 2, expiresAt - REFRESH_AHEAD_MS);
+
+            Token renewed = new Token(value, refreshAt, expiresAt);
+            token = renewed;
+            renewal.set(null);
+            result.complete(renewed);
+
+            Logger.info(method, name + " bearer token renewed, expires in " + (expiresAt - now) / 1000 + "s");
+
+            scheduleRefresh(refreshAt - now);
+        }
+        catch (Throwable t)
+        {
+            Logger.error(method, "Exception getting UMS bearerToken for " + name, 
+                         (t instanceof Exception) ? (Exception) t : new RuntimeException(t));
+            renewal.set(null);
+            result.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Schedules a proactive renewal so that an idle flow still has a valid
+     * token when the next event arrives.
+     */
+    private void scheduleRefresh(long delayMs)
+    {
+        synchronized (lock)
+        {
+            if (refresher != null && delayMs > 0)
+            {
+                refresher.schedule(() -> {
+                    Token current = token;
+                    if (current == null || System.currentTimeMillis() >= current.refreshAt)
+                    {
+                        renew();
+                    }
+                }, delayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
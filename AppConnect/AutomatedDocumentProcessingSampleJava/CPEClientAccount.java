@@ -19,22 +19,35 @@
  * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
  */
 
+import java.util.Date;
+
 import com.ibm.dba.content.authn.ServiceAccountUser;
 
 public class CPEClientAccount extends ServiceAccountUser 
 {
-    private static CPEClientAccount instance;
+    private static volatile CPEClientAccount instance;
 
     /**
-     * Get singleton instance of Aria Service Account Authentication helper
+     * Get singleton instance of Aria Service Account Authentication helper.
+     * The lock is only taken to create the instance, so that callers on
+     * virtual threads do not contend on a monitor.
      */
-    static public synchronized CPEClientAccount getInstance()
+    static public CPEClientAccount getInstance()
     {
-        if (instance == null)
+        CPEClientAccount current = instance;
+        if (current == null)
         {
-            instance = new CPEClientAccount();
+            synchronized (CPEClientAccount.class)
+            {
+                current = instance;
+                if (current == null)
+                {
+                    current = new CPEClientAccount();
+                    instance = current;
+                }
+            }
         }
-        return instance;
+        return current;
     }
 
     protected CPEClientAccount() 
@@ -63,14 +76,29 @@ public class CPEClientAccount extends ServiceAccountUser
     }
     
     @Override
-    protected String getClientId() 
+    public String getClientId() 
     {
     	return null;
     }
     
     @Override
-    protected String getClientSecret() 
+    public String getClientSecret() 
     {
     	return null;
     }
+
+    /**
+     * Returns the time at which the current access token expires, in
+     * milliseconds since the epoch, or -1 if no token has been retrieved yet.
+     */
+    public long getAccessTokenExpiryTime()
+    {
+        Date startTime = timerStartTime;
+        long expiresIn = expireTime;
+
+        if (startTime == null || expiresIn == -1)
+            return -1;
+
+        return startTime.getTime() + expiresIn * 1000;
+    }
 }
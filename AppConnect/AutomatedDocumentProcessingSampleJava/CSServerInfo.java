@@ -97,7 +97,9 @@ public class CSServerInfo
     }
 
     /**
-     * Get a property with the given key from CSServerInfo.properties. The
+     * Get a property with the given key from CSServerInfo.properties. A Java
+     * system property with the same key, set for example with
+     * {@code -DCS_SERVER_GRAPHQL_URL=...}, takes precedence over the file. The
      * method returns null if the property is not found.
      * 
      * @param key
@@ -109,6 +111,10 @@ public class CSServerInfo
     {
         try
         {
+            String override = System.getProperty(key);
+            if (override != null)
+                return override;
+
             return CS_SERVER_INFO.getProperty(key);
         }
         catch (MissingResourceException e)
@@ -119,4 +125,95 @@ public class CSServerInfo
         }
     }
 
+    /**
+     * Get an integer property with the given key from CSServerInfo.properties.
+     * The default value is returned if the property is not set or is not a
+     * valid integer.
+     * 
+     * @param key
+     *            the key of the property to get from CSServerInfo.properties
+     * @param defaultValue
+     *            value to return if the property is missing or invalid
+     * @return the integer value of the property, or the default value
+     */
+    public static int getInt(String key, int defaultValue)
+    {
+        return (int) getLong(key, defaultValue);
+    }
+
+    /**
+     * Get a boolean property with the given key from CSServerInfo.properties.
+     * The default value is returned if the property is not set.
+     * 
+     * @param key
+     *            the key of the property to get from CSServerInfo.properties
+     * @param defaultValue
+     *            value to return if the property is missing
+     * @return the boolean value of the property, or the default value
+     */
+    public static boolean getBoolean(String key, boolean defaultValue)
+    {
+        String value = getString(key);
+        if (value == null || value.trim().length() == 0)
+            return defaultValue;
+
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Get a long property with the given key from CSServerInfo.properties.
+     * The default value is returned if the property is not set or is not a
+     * valid number.
+     * 
+     * @param key
+     *            the key of the property to get from CSServerInfo.properties
+     * @param defaultValue
+     *            value to return if the property is missing or invalid
+     * @return the long value of the property, or the default value
+     */
+    public static long getLong(String key, long defaultValue)
+    {
+        String value = getString(key);
+        if (value == null || value.trim().length() == 0)
+            return defaultValue;
+
+        try
+        {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            Logger.warn("CSServerInfo.getLong: ", "Invalid value for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get a decimal property with the given key from CSServerInfo.properties.
+     * The default value is returned if the property is not set or is not a
+     * valid number.
+     * 
+     * @param key
+     *            the key of the property to get from CSServerInfo.properties
+     * @param defaultValue
+     *            value to return if the property is missing or invalid
+     * @return the double value of the property, or the default value
+     */
+    public static double getDouble(String key, double defaultValue)
+    {
+        String value = getString(key);
+        if (value == null || value.trim().length() == 0)
+            return defaultValue;
+
+        try
+        {
+            return Double.parseDouble(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            Logger.warn("CSServerInfo.getDouble: ", "Invalid value for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
 }
@@ -0,0 +1,213 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Circuit breaker for a Content Services endpoint.
+ * 
+ * The breaker is CLOSED while calls succeed. After
+ * {@code CS_BREAKER_FAILURE_THRESHOLD} consecutive failures it OPENs and
+ * rejects calls for {@code CS_BREAKER_OPEN_MS}, so that flow threads fail
+ * fast instead of waiting on a server that is down. It then goes HALF_OPEN and
+ * lets {@code CS_BREAKER_HALF_OPEN_PROBES} calls through; a success closes
+ * the breaker and a failure opens it again.
+ * 
+ * The state is guarded by a {@link ReentrantLock} rather than a monitor, so
+ * that contention on the breaker does not pin virtual threads.
+ */
+public class CircuitBreaker
+{
+    public enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final int FAILURE_THRESHOLD = Math.max(1, CSServerInfo.getInt("CS_BREAKER_FAILURE_THRESHOLD", 5));
+    private static final long OPEN_MS = CSServerInfo.getLong("CS_BREAKER_OPEN_MS", 30000);
+    private static final int HALF_OPEN_PROBES = Math.max(1, CSServerInfo.getInt("CS_BREAKER_HALF_OPEN_PROBES", 1));
+
+    private final String name;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Guarded by lock
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt = 0;
+    private int probes = 0;
+
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param name
+     *            name of the endpoint, used for logging
+     */
+    public CircuitBreaker(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Returns true if a call may be made. Every call allowed must be followed
+     * by {@link #recordSuccess()}, {@link #recordFailure()} or
+     * {@link #cancel()}.
+     */
+    public boolean tryAcquire()
+    {
+        lock.lock();
+        try
+        {
+            if (state == State.OPEN)
+            {
+                if (System.currentTimeMillis() - openedAt < OPEN_MS)
+                {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probes = 0;
+                Logger.info("CircuitBreaker.tryAcquire: ", name + " circuit breaker half-open");
+            }
+
+            if (state == State.HALF_OPEN)
+            {
+                if (probes >= HALF_OPEN_PROBES)
+                {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                probes++;
+            }
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a call that reached the server
+     */
+    public void recordSuccess()
+    {
+        lock.lock();
+        try
+        {
+            failures = 0;
+            if (state == State.HALF_OPEN)
+            {
+                state = State.CLOSED;
+                Logger.info("CircuitBreaker.recordSuccess: ", name + " circuit breaker closed");
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a call that failed with an I/O error, a timeout or a server error
+     */
+    public void recordFailure()
+    {
+        lock.lock();
+        try
+        {
+            failures++;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= FAILURE_THRESHOLD))
+            {
+                state = State.OPEN;
+                openedAt = System.currentTimeMillis();
+                opened.incrementAndGet();
+                Logger.warn("CircuitBreaker.recordFailure: ", name + " circuit breaker open after " + failures + " consecutive failures");
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the permit of a call that ended without an answer from the
+     * server, without recording an outcome
+     */
+    public void cancel()
+    {
+        lock.lock();
+        try
+        {
+            if (state == State.HALF_OPEN && probes > 0)
+            {
+                probes--;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public State getState()
+    {
+        lock.lock();
+        try
+        {
+            return state;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of times the breaker has opened
+     */
+    public long getOpenedCount()
+    {
+        return opened.get();
+    }
+
+    /**
+     * Returns the number of calls rejected while the breaker was open
+     */
+    public long getRejectedCount()
+    {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + ": " + getState() + ", opened: " + opened.get() + ", rejected: " + rejected.get();
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive limit on the calls in flight to a Content Services endpoint.
+ * 
+ * The limit follows the observed latency, additive increase / multiplicative
+ * decrease: each call that completes while the limiter is at least half used
+ * raises the limit by 1/limit (about one per round of calls), and a call that
+ * times out or fails with a server error or throttling lowers it by
+ * {@code CS_LIMIT_BACKOFF_RATIO}.
+ * 
+ * Latency is judged over windows of {@code CS_LIMIT_WINDOW_SIZE} calls, so
+ * that a few large annotations do not count as congestion. At the end of a
+ * window in which the limiter was at least half used, the limit is lowered
+ * by {@code CS_LIMIT_BACKOFF_RATIO} if the {@code CS_LIMIT_LATENCY_PERCENTILE}
+ * latency of the window exceeds {@code CS_LIMIT_LATENCY_TOLERANCE} times the
+ * baseline. The baseline is the lowest window latency seen, drifting
+ * upwards so that it follows lasting changes in the server. A lightly used
+ * limiter is not lowered by latency.
+ * 
+ * Calls beyond the limit wait in a queue of at most {@code CS_LIMIT_MAX_QUEUE}
+ * callers for up to {@code CS_LIMIT_QUEUE_TIMEOUT_MS}. A call that finds the
+ * queue full is rejected with 429; a call that times out in the queue is
+ * rejected with 503.
+ */
+public class ConcurrencyLimiter
+{
+    private static final int INITIAL_LIMIT = CSServerInfo.getInt("CS_LIMIT_INITIAL", 20);
+    private static final int MIN_LIMIT = Math.max(1, CSServerInfo.getInt("CS_LIMIT_MIN", 2));
+    private static final int MAX_LIMIT = Math.max(MIN_LIMIT, CSServerInfo.getInt("CS_LIMIT_MAX", 100));
+    private static final double BACKOFF_RATIO = CSServerInfo.getDouble("CS_LIMIT_BACKOFF_RATIO", 0.9);
+    private static final double LATENCY_TOLERANCE = CSServerInfo.getDouble("CS_LIMIT_LATENCY_TOLERANCE", 2.0);
+    private static final int MAX_QUEUE = CSServerInfo.getInt("CS_LIMIT_MAX_QUEUE", 50);
+    private static final long QUEUE_TIMEOUT_MS = CSServerInfo.getLong("CS_LIMIT_QUEUE_TIMEOUT_MS", 1000);
+    private static final int WINDOW_SIZE = Math.max(1, CSServerInfo.getInt("CS_LIMIT_WINDOW_SIZE", 50));
+    private static final double LATENCY_PERCENTILE = CSServerInfo.getDouble("CS_LIMIT_LATENCY_PERCENTILE", 0.9);
+
+    // Rate at which the baseline latency drifts towards slower windows
+    private static final double BASELINE_DRIFT = 0.05;
+
+    private final String name;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    // Guarded by lock
+    private double limit = Math.min(MAX_LIMIT, Math.max(MIN_LIMIT, INITIAL_LIMIT));
+    private int inFlight = 0;
+    private int queued = 0;
+    private double baselineNanos = 0;
+    private final long[] window = new long[WINDOW_SIZE];
+    private final long[] sorted = new long[WINDOW_SIZE];
+    private int windowCount = 0;
+    private boolean windowSaturated = false;
+
+    private final AtomicLong rejectedQueueFull = new AtomicLong();
+    private final AtomicLong rejectedTimeout = new AtomicLong();
+
+    /**
+     * @param name
+     *            name of the endpoint, used for logging
+     */
+    public ConcurrencyLimiter(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Takes a slot for a call, waiting in the queue if the limit is reached.
+     * Every slot taken must be returned with {@link #release(long, boolean)}
+     * or {@link #cancel()}.
+     * 
+     * @return the start time of the call, in nanoseconds
+     * @throws ContentServicesException
+     *             429 if the queue is full, 503 if the wait timed out
+     * @throws InterruptedException
+     */
+    public long acquire() throws InterruptedException
+    {
+        lock.lock();
+        try
+        {
+            if (inFlight >= (int) limit)
+            {
+                if (queued >= MAX_QUEUE)
+                {
+                    rejectedQueueFull.incrementAndGet();
+                    throw new ContentServicesException(429, name + " concurrency limit reached and queue is full", true);
+                }
+
+                queued++;
+                try
+                {
+                    long waitNanos = TimeUnit.MILLISECONDS.toNanos(QUEUE_TIMEOUT_MS);
+                    while (inFlight >= (int) limit)
+                    {
+                        if (waitNanos <= 0)
+                        {
+                            rejectedTimeout.incrementAndGet();
+                            throw new ContentServicesException(503, name + " concurrency limit reached, timed out in queue", true);
+                        }
+                        waitNanos = available.awaitNanos(waitNanos);
+                    }
+                }
+                finally
+                {
+                    queued--;
+                }
+            }
+
+            inFlight++;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Returns a slot and adjusts the limit from the outcome of the call
+     * 
+     * @param startNanos
+     *            start time returned by {@link #acquire()}
+     * @param overloaded
+     *            the call failed with a timeout, an I/O error, a server error
+     *            or throttling
+     */
+    public void release(long startNanos, boolean overloaded)
+    {
+        long latencyNanos = System.nanoTime() - startNanos;
+
+        lock.lock();
+        try
+        {
+            boolean saturated = inFlight * 2 >= limit;
+            inFlight--;
+
+            if (overloaded)
+            {
+                limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+            }
+            else
+            {
+                if (saturated)
+                {
+                    limit = Math.min(MAX_LIMIT, limit + 1.0 / limit);
+                }
+
+                windowSaturated |= saturated;
+                window[windowCount++] = latencyNanos;
+                if (windowCount == WINDOW_SIZE)
+                {
+                    endWindow();
+                }
+            }
+
+            available.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Compares the latency of a full window with the baseline. Called holding
+     * the lock.
+     */
+    private void endWindow()
+    {
+        System.arraycopy(window, 0, sorted, 0, WINDOW_SIZE);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(LATENCY_PERCENTILE * WINDOW_SIZE) - 1;
+        long latencyNanos = sorted[Math.min(WINDOW_SIZE - 1, Math.max(0, index))];
+
+        if (windowSaturated && baselineNanos > 0 && latencyNanos > baselineNanos * LATENCY_TOLERANCE)
+        {
+            limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+        }
+
+        if (baselineNanos == 0 || latencyNanos < baselineNanos)
+        {
+            baselineNanos = latencyNanos;
+        }
+        else
+        {
+            baselineNanos += (latencyNanos - baselineNanos) * BASELINE_DRIFT;
+        }
+
+        windowCount = 0;
+        windowSaturated = false;
+    }
+
+    /**
+     * Returns a slot without adjusting the limit, for a call that was not made
+     */
+    public void cancel()
+    {
+        lock.lock();
+        try
+        {
+            inFlight--;
+            available.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current limit on calls in flight
+     */
+    public int getLimit()
+    {
+        lock.lock();
+        try
+        {
+            return (int) limit;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of calls in flight
+     */
+    public int getInFlight()
+    {
+        lock.lock();
+        try
+        {
+            return inFlight;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of callers waiting for a slot
+     */
+    public int getQueueDepth()
+    {
+        lock.lock();
+        try
+        {
+            return queued;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        lock.lock();
+        try
+        {
+            return name + " limit: " + (int) limit + ", in flight: " + inFlight + ", queued: " + queued + 
+                   ", rejected queue full: " + rejectedQueueFull.get() + ", rejected timeout: " + rejectedTimeout.get();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.entity.DeflateInputStream;
+
+/**
+ * Compressed transfer of Content Services responses.
+ * 
+ * Requests ask for {@code gzip} or {@code deflate} content with
+ * {@link #accept(HttpRequest)}, and {@link #decode(HttpEntity)} returns the
+ * response content decompressed as it is read, so the parser reads straight
+ * from the connection and the decompressed body is never held in memory.
+ * 
+ * The pooled client does not decompress responses itself (see
+ * {@link HttpClientPool}), so that the bytes received can be counted against
+ * the bytes decoded, and so that aborting a partly read download still
+ * discards the connection instead of draining it.
+ */
+public class ContentEncoding
+{
+    private static final boolean ENABLED = CSServerInfo.getBoolean("CS_HTTP_COMPRESSION", true);
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private static final LongAdder responses = new LongAdder();
+    private static final LongAdder compressedResponses = new LongAdder();
+    private static final LongAdder receivedBytes = new LongAdder();
+    private static final LongAdder decodedBytes = new LongAdder();
+
+    private ContentEncoding()
+    {
+    }
+
+    /**
+     * Asks for a compressed response, if enabled
+     */
+    public static void accept(HttpRequest request)
+    {
+        if (ENABLED)
+        {
+            request.setHeader(HttpHeaders.ACCEPT_ENCODING, ACCEPT_ENCODING);
+        }
+    }
+
+    /**
+     * Returns the content of a response, decompressed according to its
+     * Content-Encoding header. Closing the returned stream closes the
+     * response content.
+     * 
+     * @param entity
+     *            response entity
+     * @return decoded content stream
+     * @throws IOException
+     *             if the content cannot be read or its encoding is not supported
+     */
+    public static InputStream decode(HttpEntity entity) throws IOException
+    {
+        InputStream received = new CountingInputStream(entity.getContent(), receivedBytes);
+        responses.increment();
+
+        Header header = entity.getContentEncoding();
+        String encoding = (header != null) ? header.getValue().trim().toLowerCase(Locale.ROOT) : "";
+
+        InputStream decoded;
+        if (encoding.isEmpty() || encoding.equals("identity"))
+        {
+            decoded = received;
+        }
+        else if (encoding.equals("gzip") || encoding.equals("x-gzip"))
+        {
+            decoded = new GZIPInputStream(received, 8192);
+            compressedResponses.increment();
+        }
+        else if (encoding.equals("deflate"))
+        {
+            decoded = new DeflateInputStream(received);
+            compressedResponses.increment();
+        }
+        else
+        {
+            received.close();
+            throw new IOException("Unsupported Content-Encoding: " + header.getValue());
+        }
+
+        return new CountingInputStream(decoded, decodedBytes);
+    }
+
+    /**
+     * Returns the number of responses read through {@link #decode(HttpEntity)}
+     */
+    public static long getResponses()
+    {
+        return responses.sum();
+    }
+
+    /**
+     * Returns the number of those responses that were compressed
+     */
+    public static long getCompressedResponses()
+    {
+        return compressedResponses.sum();
+    }
+
+    /**
+     * Returns the number of content bytes read from the connection
+     */
+    public static long getReceivedBytes()
+    {
+        return receivedBytes.sum();
+    }
+
+    /**
+     * Returns the number of content bytes after decompression
+     */
+    public static long getDecodedBytes()
+    {
+        return decodedBytes.sum();
+    }
+
+    /**
+     * Counts the bytes read from a stream
+     */
+    private static final class CountingInputStream extends FilterInputStream
+    {
+        private final LongAdder counter;
+
+        CountingInputStream(InputStream in, LongAdder counter)
+        {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = in.read();
+            if (b >= 0)
+            {
+                counter.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int n = in.read(b, off, len);
+            if (n > 0)
+            {
+                counter.add(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long skipped = in.skip(n);
+            if (skipped > 0)
+            {
+                counter.add(skipped);
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs calls to Content Services through the concurrency limiter and circuit
+ * breaker of their endpoint, retrying idempotent calls that fail with an I/O
+ * error, a timeout, a server error or throttling.
+ * 
+ * Retries wait a random time between zero and
+ * {@code CS_RETRY_BASE_MS * 2^(attempt-1)}, capped at
+ * {@code CS_RETRY_MAX_BACKOFF_MS} ("full jitter"), so that flow threads
+ * retrying after the same failure do not retry in step. At most
+ * {@code CS_RETRY_MAX_ATTEMPTS} attempts are made.
+ */
+public class ContentServicesCall
+{
+    private static final int MAX_ATTEMPTS = Math.max(1, CSServerInfo.getInt("CS_RETRY_MAX_ATTEMPTS", 3));
+    private static final long BASE_MS = CSServerInfo.getLong("CS_RETRY_BASE_MS", 100);
+    private static final long MAX_BACKOFF_MS = CSServerInfo.getLong("CS_RETRY_MAX_BACKOFF_MS", 2000);
+
+    /**
+     * Content Services endpoint, with its concurrency limiter and circuit breaker
+     */
+    public static final class Endpoint
+    {
+        public final String name;
+        public final ConcurrencyLimiter limiter;
+        public final CircuitBreaker breaker;
+
+        Endpoint(String name)
+        {
+            this.name = name;
+            this.limiter = new ConcurrencyLimiter(name);
+            this.breaker = new CircuitBreaker(name);
+        }
+
+        @Override
+        public String toString()
+        {
+            return limiter + ", breaker: " + breaker.getState() + ", opened: " + breaker.getOpenedCount() + 
+                   ", rejected: " + breaker.getRejectedCount();
+        }
+    }
+
+    /**
+     * The Content Services GraphQL API
+     */
+    public static final Endpoint GRAPHQL = new Endpoint("GraphQL");
+
+    /**
+     * The Content Services annotation content download
+     */
+    public static final Endpoint DOWNLOAD = new Endpoint("Download");
+
+    private static final AtomicLong calls = new AtomicLong();
+    private static final AtomicLong retries = new AtomicLong();
+    private static final AtomicLong exhausted = new AtomicLong();
+
+    /**
+     * Runs a call to Content Services
+     * 
+     * @param endpoint
+     *            endpoint called
+     * @param idempotent
+     *            the call may be retried
+     * @param call
+     *            the call
+     * @return The result of the call
+     * @throws Exception
+     *             the failure of the last attempt, or a
+     *             {@link ContentServicesException} if the call is rejected by
+     *             the concurrency limiter or the circuit breaker
+     */
+    public static <T> T call(Endpoint endpoint, boolean idempotent, Callable<T> call) throws Exception
+    {
+        String method = "ContentServicesCall.call: ";
+        int maxAttempts = idempotent ? MAX_ATTEMPTS : 1;
+        calls.incrementAndGet();
+
+        for (int attempt = 1; ; attempt++)
+        {
+            long startNanos = endpoint.limiter.acquire();
+            if (!endpoint.breaker.tryAcquire())
+            {
+                endpoint.limiter.cancel();
+                throw new ContentServicesException(503, endpoint.name + " circuit breaker is open", true);
+            }
+
+            boolean settled = false;
+            try
+            {
+                T result = call.call();
+                endpoint.breaker.recordSuccess();
+                endpoint.limiter.release(startNanos, false);
+                settled = true;
+                return result;
+            }
+            catch (Exception e)
+            {
+                if (e instanceof InterruptedException || Thread.currentThread().isInterrupted())
+                {
+                    // The call was abandoned, not answered by the server
+                    endpoint.breaker.cancel();
+                    endpoint.limiter.cancel();
+                    settled = true;
+                    throw e;
+                }
+
+                boolean retryable = isRetryable(e);
+                if (retryable)
+                {
+                    endpoint.breaker.recordFailure();
+                }
+                else
+                {
+                    endpoint.breaker.recordSuccess();
+                }
+                endpoint.limiter.release(startNanos, retryable);
+                settled = true;
+
+                if (!retryable || attempt >= maxAttempts)
+                {
+                    if (retryable && maxAttempts > 1)
+                    {
+                        exhausted.incrementAndGet();
+                    }
+                    throw e;
+                }
+
+                long backoffMs = ThreadLocalRandom.current().nextLong(Math.min(MAX_BACKOFF_MS, BASE_MS << (attempt - 1)) + 1);
+                retries.incrementAndGet();
+                int failedAttempt = attempt;
+                Logger.warn(method, () -> endpoint.name + " attempt " + failedAttempt + " failed: " + e + ", retrying in " + backoffMs + " ms");
+
+                Thread.sleep(backoffMs);
+            }
+            finally
+            {
+                // An Error thrown by the call, return the slot and the breaker permit
+                if (!settled)
+                {
+                    endpoint.breaker.cancel();
+                    endpoint.limiter.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a description of the retry, concurrency limit and circuit
+     * breaker counters, for logging.
+     */
+    public static String getStats()
+    {
+        return "calls: " + calls.get() + ", retries: " + retries.get() + ", retries exhausted: " + exhausted.get() + 
+               ", endpoints: [" + GRAPHQL + "; " + DOWNLOAD + "]";
+    }
+
+    private static boolean isRetryable(Exception e)
+    {
+        if (e instanceof ContentServicesException)
+        {
+            return ((ContentServicesException) e).isRetryable();
+        }
+        return e instanceof IOException;
+    }
+}
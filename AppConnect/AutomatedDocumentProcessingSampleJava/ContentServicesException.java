@@ -0,0 +1,76 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+/**
+ * Failure of a call to Content Services, with the HTTP status code of the
+ * response when there was one.
+ */
+public class ContentServicesException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final boolean rejected;
+
+    /**
+     * @param statusCode
+     *            HTTP status code of the response
+     * @param message
+     *            description of the failure
+     */
+    public ContentServicesException(int statusCode, String message)
+    {
+        this(statusCode, message, false);
+    }
+
+    ContentServicesException(int statusCode, String message, boolean rejected)
+    {
+        super(message);
+        this.statusCode = statusCode;
+        this.rejected = rejected;
+    }
+
+    /**
+     * Returns the HTTP status code of the response
+     */
+    public int getStatusCode()
+    {
+        return statusCode;
+    }
+
+    /**
+     * Returns true if the call was not made, because the circuit breaker of
+     * the endpoint is open or the concurrency limit of the endpoint is reached
+     */
+    public boolean isRejected()
+    {
+        return rejected;
+    }
+
+    /**
+     * Returns true if the call may succeed when retried: server errors and
+     * throttling, but not a call rejected before it was made
+     */
+    public boolean isRetryable()
+    {
+        return !rejected && (statusCode >= 500 || statusCode == 429);
+    }
+}
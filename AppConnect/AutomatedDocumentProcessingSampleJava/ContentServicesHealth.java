@@ -0,0 +1,281 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Background health prober for the Content Services GraphQL server.
+ * 
+ * Each object store seen by the flow gets a probe that runs the
+ * {@code PING_CONTENTSERVICE_SERVER} ({@code _apiInfo}) query on a schedule and
+ * caches the resulting up/down status with the time it was checked. Webhook
+ * processing reads the cached status with {@link #isAvailable(String)} instead
+ * of pinging the server inline for every event.
+ * 
+ * The first event for an object store, or an event that finds a status older
+ * than {@code CS_HEALTH_STALE_MS}, probes inline once; concurrent callers wait
+ * for that probe rather than issuing their own. A probe rejected by the local
+ * concurrency limiter or circuit breaker does not reach the server and leaves
+ * the status unchanged.
+ */
+public class ContentServicesHealth
+{
+    /**
+     * Cached result of a probe.
+     */
+    public static class Status
+    {
+        public final boolean up;
+        public final long lastChecked;
+        public final String detail;
+
+        Status(boolean up, long lastChecked, String detail)
+        {
+            this.up = up;
+            this.lastChecked = lastChecked;
+            this.detail = detail;
+        }
+
+        @Override
+        public String toString()
+        {
+            return (up ? "UP" : "DOWN") + " lastChecked: " + lastChecked + (detail != null ? " " + detail : "");
+        }
+    }
+
+    private static final long PROBE_INTERVAL_MS = CSServerInfo.getLong("CS_HEALTH_PROBE_INTERVAL_MS", 15000);
+    private static final long STALE_MS = CSServerInfo.getLong("CS_HEALTH_STALE_MS", 60000);
+
+    private static final ConcurrentHashMap<String, Probe> probes = new ConcurrentHashMap<String, Probe>();
+
+    private static final Object lock = new Object();
+    private static ScheduledExecutorService scheduler;
+    private static int references = 0;
+
+    /**
+     * Starts the background prober thread if this is the first reference.
+     */
+    public static void acquire()
+    {
+        synchronized (lock)
+        {
+            references++;
+            if (scheduler == null)
+            {
+                scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "ContentServicesHealth");
+                    t.setDaemon(true);
+                    return t;
+                });
+
+                // Resume probing any object stores seen before a restart
+                for (Probe probe : probes.values())
+                {
+                    probe.schedule(scheduler);
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases a reference taken by {@link #acquire()}. The prober thread is
+     * stopped when the last reference is released.
+     */
+    public static void release()
+    {
+        synchronized (lock)
+        {
+            if (references > 0)
+            {
+                references--;
+            }
+
+            if (references == 0 && scheduler != null)
+            {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+    }
+
+    /**
+     * Returns true if the last probe of the Content Services server for the
+     * given object store succeeded.
+     * 
+     * @param objectStoreId
+     *            Name or GUID of the object store
+     * @return true if the server is available for the object store
+     */
+    public static boolean isAvailable(String objectStoreId)
+    {
+        return getStatus(objectStoreId).up;
+    }
+
+    /**
+     * Returns the cached status for the given object store, probing inline if
+     * there is no status yet or the cached status is stale.
+     * 
+     * @param objectStoreId
+     *            Name or GUID of the object store
+     * @return the cached status
+     */
+    public static Status getStatus(String objectStoreId)
+    {
+        Probe probe = probes.get(objectStoreId);
+        if (probe == null)
+        {
+            Probe newProbe = new Probe(objectStoreId);
+            probe = probes.putIfAbsent(objectStoreId, newProbe);
+            if (probe == null)
+            {
+                probe = newProbe;
+                synchronized (lock)
+                {
+                    if (scheduler != null)
+                    {
+                        probe.schedule(scheduler);
+                    }
+                }
+            }
+        }
+
+        Status status = probe.status;
+        if (status == null || System.currentTimeMillis() - status.lastChecked > STALE_MS)
+        {
+            status = probe.probeIfOlderThan(STALE_MS);
+        }
+        return status;
+    }
+
+    /**
+     * Probe of a single object store.
+     */
+    private static class Probe implements Runnable
+    {
+        private final String objectStoreId;
+        private final ReentrantLock probeLock = new ReentrantLock();
+        private volatile Status status;
+
+        Probe(String objectStoreId)
+        {
+            this.objectStoreId = objectStoreId;
+        }
+
+        void schedule(ScheduledExecutorService executor)
+        {
+            executor.scheduleWithFixedDelay(this, PROBE_INTERVAL_MS, PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run()
+        {
+            probeIfOlderThan(0);
+        }
+
+        /**
+         * Probes the server unless another thread refreshed the status while
+         * this one was waiting.
+         */
+        Status probeIfOlderThan(long maxAgeMs)
+        {
+            probeLock.lock();
+            try
+            {
+                Status current = status;
+                if (current != null && maxAgeMs > 0 && System.currentTimeMillis() - current.lastChecked <= maxAgeMs)
+                {
+                    return current;
+                }
+
+                Status probed = probe();
+                if (probed == null)
+                {
+                    // The server was not reached, keep the previous status (up if there is none)
+                    probed = new Status(current == null || current.up, System.currentTimeMillis(), 
+                                        current != null ? current.detail : "probe rejected locally");
+                }
+                if (current == null || current.up != probed.up)
+                {
+                    Logger.info("ContentServicesHealth.probe: ", "objectStoreId: " + objectStoreId + " " + probed);
+                }
+                status = probed;
+                return probed;
+            }
+            finally
+            {
+                probeLock.unlock();
+            }
+        }
+
+        /**
+         * Returns the probed status, or null if the probe was rejected before
+         * it reached the server
+         */
+        private Status probe()
+        {
+            String method = "ContentServicesHealth.probe: ";
+
+            try
+            {
+                JSONObject jsonGraphQLResponse = GraphQLAPIUtil.callGraphQLAPI(GraphQLCallTemplate.PING_CONTENTSERVICE_SERVER, false, objectStoreId);
+
+                if ( (jsonGraphQLResponse == null) || (jsonGraphQLResponse.length() == 0) )
+                {
+                    return new Status(false, System.currentTimeMillis(), "empty PING response");
+                }
+
+                if ( jsonGraphQLResponse.has("errors") )
+                {
+                    JSONArray jsonResponseErrors = jsonGraphQLResponse.getJSONArray("errors");
+                    if ( jsonResponseErrors.length() > 0 )
+                    {
+                        return new Status(false, System.currentTimeMillis(), jsonResponseErrors.get(0).toString());
+                    }
+                }
+
+                return new Status(true, System.currentTimeMillis(), null);
+            }
+            catch (ContentServicesException e)
+            {
+                if (e.isRejected())
+                {
+                    // Rejected by the local concurrency limiter or circuit breaker, not a server failure
+                    Logger.debug(method, () -> "GraphQL ping for objectStoreId: " + objectStoreId + " rejected: " + e.getMessage());
+                    return null;
+                }
+                Logger.error(method, "Error from GraphQL ping for objectStoreId: " + objectStoreId, e);
+                return new Status(false, System.currentTimeMillis(), e.toString());
+            }
+            catch (Exception e)
+            {
+                Logger.error(method, "Error from GraphQL ping for objectStoreId: " + objectStoreId, e);
+                return new Status(false, System.currentTimeMillis(), e.toString());
+            }
+        }
+    }
+}
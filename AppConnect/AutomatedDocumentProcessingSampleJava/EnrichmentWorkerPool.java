@@ -0,0 +1,226 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded worker pool that enriches webhook events after they have been
+ * acknowledged, in fast acknowledge mode ({@code ENRICH_FAST_ACK}).
+ * 
+ * The flow replies 202 once the HMAC and receiverRegistrationId checks pass
+ * and hands the event to this pool, so that the webhook reply no longer waits
+ * for the GraphQL lookup, the annotation download and the result write. The
+ * pool runs {@code ENRICH_THREADS} workers over a queue of at most
+ * {@code ENRICH_QUEUE_CAPACITY} events; an event that finds the queue full is
+ * answered with 503 so that the Content Platform Engine delivers it again.
+ * 
+ * The pool is started from {@code Finalization_JavaCompute.onSetup()}. When
+ * the last node releases it, from {@code onStop(true)} or {@code onTearDown},
+ * it stops taking events and waits up to {@code ENRICH_DRAIN_TIMEOUT_MS} for
+ * the queued events to finish.
+ * 
+ * With {@code VIRTUAL_THREADS_ENABLED} each event is enriched on a virtual
+ * thread, at most {@code ENRICH_THREADS} at once, see {@link VirtualThreads}.
+ */
+public class EnrichmentWorkerPool
+{
+    /**
+     * Enrichment of one event
+     */
+    public interface Task
+    {
+        void run() throws Exception;
+    }
+
+    private static final boolean FAST_ACK = CSServerInfo.getBoolean("ENRICH_FAST_ACK", false);
+    private static final int THREADS = Math.max(1, CSServerInfo.getInt("ENRICH_THREADS", 8));
+    private static final int QUEUE_CAPACITY = Math.max(1, CSServerInfo.getInt("ENRICH_QUEUE_CAPACITY", 1000));
+    private static final long DRAIN_TIMEOUT_MS = CSServerInfo.getLong("ENRICH_DRAIN_TIMEOUT_MS", 30000);
+
+    private static final Object lock = new Object();
+    private static volatile ExecutorService executor;
+    private static int references = 0;
+
+    private static final AtomicLong submitted = new AtomicLong();
+    private static final AtomicLong completed = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Returns true if events are acknowledged before they are enriched
+     */
+    public static boolean isEnabled()
+    {
+        return FAST_ACK;
+    }
+
+    /**
+     * Starts the worker threads if this is the first reference.
+     */
+    public static void acquire()
+    {
+        if (!FAST_ACK)
+        {
+            return;
+        }
+
+        synchronized (lock)
+        {
+            references++;
+            if (executor == null)
+            {
+                executor = VirtualThreads.newExecutor("EnrichmentWorkerPool", THREADS, QUEUE_CAPACITY);
+            }
+        }
+    }
+
+    /**
+     * Releases a reference taken by {@link #acquire()}. When the last
+     * reference is released the pool stops taking events and drains the
+     * queued events.
+     */
+    public static void release()
+    {
+        String method = "EnrichmentWorkerPool.release: ";
+
+        if (!FAST_ACK)
+        {
+            return;
+        }
+
+        ExecutorService stopping = null;
+        synchronized (lock)
+        {
+            if (references > 0)
+            {
+                references--;
+            }
+
+            if (references == 0 && executor != null)
+            {
+                stopping = executor;
+                executor = null;
+                stopping.shutdown();
+            }
+        }
+
+        if (stopping != null)
+        {
+            Logger.info(method, "Draining enrichment queue, " + getStats(stopping));
+            try
+            {
+                if (!stopping.awaitTermination(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                {
+                    int abandoned = VirtualThreads.getQueueDepth(stopping);
+                    stopping.shutdownNow();
+                    Logger.warn(method, "Enrichment not drained within " + DRAIN_TIMEOUT_MS + " ms, " + abandoned + " queued events abandoned");
+                }
+            }
+            catch (InterruptedException e)
+            {
+                stopping.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queues the enrichment of an event
+     * 
+     * @param correlationId
+     *            correlation id logged with the messages of the task
+     * @param task
+     *            the enrichment
+     * @param onFailure
+     *            run if the task fails
+     * @return true if the event was queued, false if the queue is full or the
+     *         pool is not running
+     */
+    public static boolean submit(String correlationId, Task task, Runnable onFailure)
+    {
+        String method = "EnrichmentWorkerPool.run: ";
+
+        ExecutorService pool = executor;
+        if (pool == null)
+        {
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        try
+        {
+            pool.execute(() -> {
+                Logger.setCorrelationId(correlationId);
+                try
+                {
+                    task.run();
+                    completed.incrementAndGet();
+                }
+                catch (Exception e)
+                {
+                    failed.incrementAndGet();
+                    Logger.error(method, "Enrichment failed", e);
+                    onFailure.run();
+                }
+                finally
+                {
+                    Logger.clearCorrelationId();
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        submitted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the number of events waiting for a worker
+     */
+    public static int getQueueDepth()
+    {
+        ExecutorService pool = executor;
+        return pool == null ? 0 : VirtualThreads.getQueueDepth(pool);
+    }
+
+    /**
+     * Returns a description of the pool counters, for logging.
+     */
+    public static String getStats()
+    {
+        return getStats(executor);
+    }
+
+    private static String getStats(ExecutorService pool)
+    {
+        return "queued: " + (pool == null ? 0 : VirtualThreads.getQueueDepth(pool)) + "/" + QUEUE_CAPACITY + 
+               ", active: " + (pool == null ? 0 : VirtualThreads.getActiveCount(pool)) + "/" + THREADS + 
+               ", submitted: " + submitted.get() + ", completed: " + completed.get() + 
+               ", failed: " + failed.get() + ", rejected: " + rejected.get();
+    }
+}
@@ -0,0 +1,779 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Durable local spool (write-ahead log) of accepted webhook events.
+ * 
+ * Each accepted event is appended as an ACCEPT record with the event fields
+ * before the webhook is acknowledged, and a DONE record is appended once its
+ * results have been written. When the spool is opened, the events without a
+ * DONE record are recovered so that they can be processed again.
+ * 
+ * The spool is a directory of append-only segment files
+ * {@code spool-<number>.log}. A record is
+ * 
+ * <pre>
+ * int length | int CRC-32 of payload | payload
+ * payload: byte type | long sequence | (ACCEPT) byte count, count x (int length or -1, UTF-8 bytes)
+ * </pre>
+ * 
+ * Reading a segment stops at the first record that is truncated or fails its
+ * CRC, which is where a write was interrupted. A new segment is started each
+ * time the spool is opened and when the active segment reaches
+ * {@code SPOOL_SEGMENT_BYTES}.
+ * 
+ * Appends use group commit: callers that append concurrently wait for one
+ * sync of the segment that covers all their records, instead of one sync
+ * each. DONE records are not synced on their own; losing one only causes the
+ * event to be processed again.
+ * 
+ * {@link #compact()} deletes the segments once all their events are done. If
+ * a segment still has a few pending events, they are copied to the active
+ * segment first so that a single slow event does not hold back the whole
+ * spool. An event that can never succeed is removed with
+ * {@link #markFailed(long, String)} instead of being replayed on every start.
+ */
+public class EventSpool
+{
+    private static final boolean ENABLED = CSServerInfo.getBoolean("SPOOL_ENABLED", false);
+    private static final String DIRECTORY = CSServerInfo.getString("SPOOL_DIR");
+    private static final long SEGMENT_BYTES = CSServerInfo.getLong("SPOOL_SEGMENT_BYTES", 16777216);
+    private static final long COMPACT_INTERVAL_MS = CSServerInfo.getLong("SPOOL_COMPACT_INTERVAL_MS", 10000);
+    private static final int COMPACT_MAX_RELOCATE = CSServerInfo.getInt("SPOOL_COMPACT_MAX_RELOCATE", 100);
+
+    private static final byte ACCEPT = 1;
+    private static final byte DONE = 2;
+
+    private static final String PREFIX = "spool-";
+    private static final String SUFFIX = ".log";
+
+    /**
+     * Event recovered from the spool
+     */
+    public static final class Entry
+    {
+        public final long sequence;
+        public final String[] fields;
+
+        Entry(long sequence, String[] fields)
+        {
+            this.sequence = sequence;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Segment file, with the number of its ACCEPT records not yet done
+     */
+    private static final class Segment
+    {
+        final long number;
+        final Path path;
+        int pending = 0;
+
+        Segment(long number, Path path)
+        {
+            this.number = number;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Event not yet done, with its ACCEPT record
+     */
+    private static final class Pending
+    {
+        Segment segment;
+        final byte[] record;
+
+        Pending(Segment segment, byte[] record)
+        {
+            this.segment = segment;
+            this.record = record;
+        }
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition synced = lock.newCondition();
+
+    // Guarded by lock
+    private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+    private final Map<Long, Pending> pending = new HashMap<Long, Pending>();
+    private final List<FileChannel> retired = new ArrayList<FileChannel>();
+    private Segment active;
+    private FileChannel channel;
+    private long activeBytes = 0;
+    private long lastSequence = 0;
+    private long writtenSequence = 0;
+    private long durableSequence = 0;
+    private boolean syncing = false;
+    private List<Entry> recovered;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong deletedSegments = new AtomicLong();
+    private final AtomicLong relocated = new AtomicLong();
+
+    /**
+     * Opens the spool in a directory, creating it if needed, and recovers the
+     * events that are not done.
+     * 
+     * @param directory
+     *            spool directory
+     * @param segmentBytes
+     *            size at which a new segment is started
+     * @throws IOException
+     */
+    public EventSpool(Path directory, long segmentBytes) throws IOException
+    {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+
+        Files.createDirectories(directory);
+        recover();
+        roll();
+    }
+
+    /**
+     * Appends an accepted event and waits until it is durable
+     * 
+     * @param fields
+     *            event fields
+     * @return The sequence number of the event, for {@link #markDone(long)}
+     * @throws IOException
+     */
+    public long append(String[] fields) throws IOException
+    {
+        long sequence;
+        lock.lock();
+        try
+        {
+            sequence = ++lastSequence;
+            byte[] record = encode(ACCEPT, sequence, fields);
+            write(record);
+            pending.put(sequence, new Pending(active, record));
+            active.pending++;
+            writtenSequence = sequence;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        accepted.incrementAndGet();
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    /**
+     * Records that an event is done. The record is made durable with the next
+     * group commit.
+     * 
+     * @param sequence
+     *            sequence number returned by {@link #append(String[])}
+     */
+    public void markDone(long sequence)
+    {
+        String method = "EventSpool.markDone: ";
+
+        lock.lock();
+        try
+        {
+            Pending entry = pending.remove(sequence);
+            if (entry == null)
+            {
+                return;
+            }
+            entry.segment.pending--;
+            write(encode(DONE, sequence, null));
+            done.incrementAndGet();
+        }
+        catch (IOException e)
+        {
+            Logger.warn(method, "Failure recording event " + sequence + " done, it will be processed again on restart: " + e);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that an event failed in a way that retrying cannot fix, so that
+     * it is not processed again. The event fields are logged so that the event
+     * can be submitted again by hand.
+     * 
+     * @param sequence
+     *            sequence number returned by {@link #append(String[])}
+     * @param reason
+     *            description of the failure
+     */
+    public void markFailed(long sequence, String reason)
+    {
+        String method = "EventSpool.markFailed: ";
+
+        String[] fields;
+        lock.lock();
+        try
+        {
+            Pending entry = pending.get(sequence);
+            if (entry == null)
+            {
+                return;
+            }
+            fields = decodeFields(entry.record);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        Logger.warn(method, "Event " + sequence + " failed and is removed from the spool: " + reason + ", fields: " + Arrays.toString(fields));
+        failed.incrementAndGet();
+        markDone(sequence);
+    }
+
+    /**
+     * Returns the events recovered when the spool was opened, once
+     * 
+     * @return The recovered events, in sequence order
+     */
+    public List<Entry> takeRecovered()
+    {
+        lock.lock();
+        try
+        {
+            List<Entry> entries = recovered;
+            recovered = Collections.emptyList();
+            return entries;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the segments whose events are all done. The pending events of a
+     * segment are copied to the active segment first if there are at most
+     * {@code SPOOL_COMPACT_MAX_RELOCATE} of them; a segment with more is kept
+     * and the following segments are still compacted.
+     * 
+     * @throws IOException
+     */
+    public void compact() throws IOException
+    {
+        lock.lock();
+        try
+        {
+            // Segments started while copying are left for the next compaction
+            Segment last = active;
+            for (Segment segment : new ArrayList<Segment>(segments))
+            {
+                if (segment == last)
+                {
+                    break;
+                }
+
+                if (segment.pending > 0)
+                {
+                    if (segment.pending > COMPACT_MAX_RELOCATE)
+                    {
+                        continue;
+                    }
+
+                    // Copy the pending events to the active segment and make them durable
+                    for (Pending entry : pending.values())
+                    {
+                        if (entry.segment == segment)
+                        {
+                            write(entry.record);
+                            entry.segment = active;
+                            active.pending++;
+                            relocated.incrementAndGet();
+                        }
+                    }
+                    segment.pending = 0;
+                    channel.force(false);
+                    syncs.incrementAndGet();
+                }
+
+                segments.remove(segment);
+                Files.deleteIfExists(segment.path);
+                deletedSegments.incrementAndGet();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Syncs and closes the active segment
+     */
+    public void close() throws IOException
+    {
+        lock.lock();
+        try
+        {
+            if (channel != null)
+            {
+                channel.force(false);
+                channel.close();
+                channel = null;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of events not yet done
+     */
+    public int getPendingCount()
+    {
+        lock.lock();
+        try
+        {
+            return pending.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a description of the spool counters, for logging.
+     */
+    public String getStats()
+    {
+        lock.lock();
+        try
+        {
+            return "pending: " + pending.size() + ", segments: " + segments.size() + ", accepted: " + accepted.get() + 
+                   ", done: " + done.get() + ", failed: " + failed.get() + ", syncs: " + syncs.get() + ", deleted segments: " + deletedSegments.get() + 
+                   ", relocated: " + relocated.get();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the records up to the given sequence number are synced. The
+     * first waiter syncs the segment for every record written so far; the
+     * others wait for that sync.
+     */
+    private void awaitDurable(long sequence) throws IOException
+    {
+        lock.lock();
+        try
+        {
+            while (durableSequence < sequence)
+            {
+                if (syncing)
+                {
+                    synced.awaitUninterruptibly();
+                    continue;
+                }
+
+                syncing = true;
+                long target = writtenSequence;
+                FileChannel syncChannel = channel;
+                lock.unlock();
+                try
+                {
+                    syncChannel.force(false);
+                    syncs.incrementAndGet();
+                }
+                finally
+                {
+                    lock.lock();
+                    syncing = false;
+                    closeRetired();
+                    synced.signalAll();
+                }
+                durableSequence = Math.max(durableSequence, target);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes a record to the active segment, starting a new segment if it is
+     * full. Called holding the lock.
+     */
+    private void write(byte[] record) throws IOException
+    {
+        if (activeBytes > 0 && activeBytes + record.length > segmentBytes)
+        {
+            roll();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        activeBytes += record.length;
+    }
+
+    /**
+     * Syncs and closes the active segment and starts a new one. Called
+     * holding the lock, or from the constructor.
+     */
+    private void roll() throws IOException
+    {
+        long number = 1;
+        if (channel != null)
+        {
+            // Waiters for records in the closed segment are covered by this sync
+            channel.force(false);
+            syncs.incrementAndGet();
+            durableSequence = writtenSequence;
+            synced.signalAll();
+
+            // A sync in progress still uses the channel, it is closed when the sync ends
+            retired.add(channel);
+            if (!syncing)
+            {
+                closeRetired();
+            }
+        }
+        if (!segments.isEmpty())
+        {
+            number = segments.peekLast().number + 1;
+        }
+
+        Path path = directory.resolve(String.format("%s%012d%s", PREFIX, number, SUFFIX));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        active = new Segment(number, path);
+        activeBytes = 0;
+        segments.addLast(active);
+    }
+
+    private void closeRetired()
+    {
+        for (FileChannel closed : retired)
+        {
+            try
+            {
+                closed.close();
+            }
+            catch (IOException e) {/* ignore */}
+        }
+        retired.clear();
+    }
+
+    /**
+     * Reads the existing segments in order and collects the events without a
+     * DONE record
+     */
+    private void recover() throws IOException
+    {
+        String method = "EventSpool.recover: ";
+
+        List<Segment> existing = new ArrayList<Segment>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX))
+        {
+            for (Path path : files)
+            {
+                String name = path.getFileName().toString();
+                try
+                {
+                    existing.add(new Segment(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), path));
+                }
+                catch (NumberFormatException e)
+                {
+                    Logger.warn(method, "Ignoring unexpected file in spool directory: " + path);
+                }
+            }
+        }
+        Collections.sort(existing, (a, b) -> Long.compare(a.number, b.number));
+
+        for (Segment segment : existing)
+        {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(segment.path));
+            segments.addLast(segment);
+
+            while (data.remaining() >= 8)
+            {
+                int start = data.position();
+                int length = data.getInt();
+                int crc = data.getInt();
+                if (length < 9 || length > data.remaining() || crc(data.array(), data.position(), length) != crc)
+                {
+                    Logger.warn(method, "Ignoring incomplete record at offset " + start + " of " + segment.path);
+                    break;
+                }
+
+                byte[] record = new byte[8 + length];
+                System.arraycopy(data.array(), start, record, 0, record.length);
+                byte type = data.get();
+                long sequence = data.getLong();
+                data.position(start + record.length);
+
+                lastSequence = Math.max(lastSequence, sequence);
+                if (type == ACCEPT)
+                {
+                    Pending previous = pending.put(sequence, new Pending(segment, record));
+                    if (previous != null)
+                    {
+                        // Copied by compaction
+                        previous.segment.pending--;
+                    }
+                    segment.pending++;
+                }
+                else if (type == DONE)
+                {
+                    Pending entry = pending.remove(sequence);
+                    if (entry != null)
+                    {
+                        entry.segment.pending--;
+                    }
+                }
+            }
+        }
+
+        writtenSequence = lastSequence;
+        durableSequence = lastSequence;
+
+        List<Long> sequences = new ArrayList<Long>(pending.keySet());
+        Collections.sort(sequences);
+        recovered = new ArrayList<Entry>(sequences.size());
+        for (Long sequence : sequences)
+        {
+            recovered.add(new Entry(sequence, decodeFields(pending.get(sequence).record)));
+        }
+
+        if (!existing.isEmpty())
+        {
+            Logger.info(method, "Recovered " + recovered.size() + " pending events from " + existing.size() + " segments in " + directory);
+        }
+    }
+
+    private static byte[] encode(byte type, long sequence, String[] fields)
+    {
+        byte[][] values = new byte[fields == null ? 0 : fields.length][];
+        int length = 9 + (fields == null ? 0 : 1);
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = fields[i] == null ? null : fields[i].getBytes(StandardCharsets.UTF_8);
+            length += 4 + (values[i] == null ? 0 : values[i].length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(8 + length);
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.put(type);
+        buffer.putLong(sequence);
+        if (fields != null)
+        {
+            buffer.put((byte) values.length);
+            for (byte[] value : values)
+            {
+                buffer.putInt(value == null ? -1 : value.length);
+                if (value != null)
+                {
+                    buffer.put(value);
+                }
+            }
+        }
+        buffer.putInt(4, crc(buffer.array(), 8, length));
+        return buffer.array();
+    }
+
+    private static String[] decodeFields(byte[] record)
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.position(8 + 9);
+        String[] fields = new String[buffer.get()];
+        for (int i = 0; i < fields.length; i++)
+        {
+            int length = buffer.getInt();
+            if (length >= 0)
+            {
+                fields[i] = new String(record, buffer.position(), length, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+            }
+        }
+        return fields;
+    }
+
+    private static int crc(byte[] data, int offset, int length)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /*
+     * Spool shared by the nodes of the flow
+     */
+
+    private static final Object sharedLock = new Object();
+    private static EventSpool shared;
+    private static ScheduledExecutorService compactor;
+    private static int references = 0;
+
+    /**
+     * Returns true if accepted events are spooled
+     */
+    public static boolean isEnabled()
+    {
+        return ENABLED;
+    }
+
+    /**
+     * Opens the shared spool in {@code SPOOL_DIR} and starts the background
+     * compaction if this is the first reference.
+     */
+    public static void acquire()
+    {
+        String method = "EventSpool.acquire: ";
+
+        if (!ENABLED)
+        {
+            return;
+        }
+
+        synchronized (sharedLock)
+        {
+            references++;
+            if (shared == null)
+            {
+                try
+                {
+                    shared = new EventSpool(Paths.get(DIRECTORY), SEGMENT_BYTES);
+                }
+                catch (IOException e)
+                {
+                    Logger.error(method, "Failure opening event spool in " + DIRECTORY, e);
+                    return;
+                }
+
+                EventSpool spool = shared;
+                compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "EventSpool");
+                    t.setDaemon(true);
+                    return t;
+                });
+                compactor.scheduleWithFixedDelay(() -> {
+                    try
+                    {
+                        spool.compact();
+                    }
+                    catch (IOException e)
+                    {
+                        Logger.error("EventSpool.compact: ", "Failure compacting event spool", e);
+                    }
+                }, COMPACT_INTERVAL_MS, COMPACT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Releases a reference taken by {@link #acquire()}. The spool is closed
+     * when the last reference is released.
+     */
+    public static void release()
+    {
+        String method = "EventSpool.release: ";
+
+        if (!ENABLED)
+        {
+            return;
+        }
+
+        synchronized (sharedLock)
+        {
+            if (references > 0)
+            {
+                references--;
+            }
+
+            if (references == 0 && shared != null)
+            {
+                compactor.shutdownNow();
+                compactor = null;
+                try
+                {
+                    Logger.info(method, "Closing event spool, " + shared.getStats());
+                    shared.close();
+                }
+                catch (IOException e)
+                {
+                    Logger.error(method, "Failure closing event spool", e);
+                }
+                shared = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the shared spool, or null if it is not open
+     */
+    public static EventSpool getShared()
+    {
+        synchronized (sharedLock)
+        {
+            return shared;
+        }
+    }
+}
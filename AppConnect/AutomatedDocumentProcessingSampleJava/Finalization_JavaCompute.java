@@ -28,9 +28,8 @@ import com.ibm.broker.plugin.MbUserException;
 import com.ibm.broker.plugin.MbXPathVariables;
 import com.ibm.broker.plugin.MbElement;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.util.List;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -42,7 +41,32 @@ import org.json.JSONObject;
 
 public class Finalization_JavaCompute extends MbJavaComputeNode {
 
-	static final private Object lock = new Object();
+	/**
+	 * Verify the HMAC over the input bitstream before parsing the body, see
+	 * {@link #getInputBitstream(MbMessage)}
+	 */
+	static final private boolean HMAC_VERIFY_RAW_BITSTREAM = CSServerInfo.getBoolean("HMAC_VERIFY_RAW_BITSTREAM", false);
+
+	/**
+	 * Annotation query, requesting only the annotation and content element
+	 * identifiers read by {@link #getKVPTableFromAnnotation(String, String, JSONObject)}
+	 */
+	static final private GraphQLQuery GET_DOC_ANNOTATIONS = GraphQLCallTemplate.GET_DOC_ANNOTATIONS
+			.without("className", "name", "mimeType", "creator", "owner", "dateCreated", "isReserved", "contentSize");
+
+	/**
+	 * Annotation lookups, batched per object store during bursts of webhooks
+	 */
+	static final private AnnotationLookupBatcher ANNOTATION_LOOKUPS = new AnnotationLookupBatcher(GET_DOC_ANNOTATIONS);
+
+	/**
+	 * Document query, requesting only the properties logged by
+	 * {@link #logSourceObject(String, String, JSONObject)}
+	 */
+	static final private GraphQLQuery GET_DOCUMENT = GraphQLCallTemplate.GET_DOCUMENT
+			.without("creator", "owner", "isReserved", "reservation", "accessAllowed", "contentElements");
+
+	private boolean sharedResourcesAcquired = false;
 
 	public void evaluate(MbMessageAssembly inAssembly) throws MbException
 	{
@@ -56,45 +80,99 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
 		MbMessage outLocalEnv = new MbMessage(inLocalEnv);
 		MbMessageAssembly outAssembly = null;
 
+		Logger.clearCorrelationId();
 		Logger.info(method, "Processing message...");
 		
+		long requestStart = StageMetrics.start();
+		String dedupeKey = null;
+		long spoolSequence = 0;
+		boolean processed = false;
+		boolean enriching = false;
+		MbXPathVariables vars = new MbXPathVariables();
+		MbMessage outMessage = null;
 		try {
 
-			MbXPathVariables vars = new MbXPathVariables();
-
 			// Create new message
-			MbMessage outMessage = new MbMessage();
+			outMessage = new MbMessage();
 			outAssembly = new MbMessageAssembly(inAssembly, outMessage);
 
 			/*
 			 * Process hmac header
 			 */
             String hmacValue = processHTTPInputHeaders(vars, inMessage, outLocalEnv, outMessage, outAssembly);
+            if (hmacValue == null) {
+            	StageMetrics.count(StageMetrics.Outcome.HMAC_REJECT);
+            	return;
+            }
 			
-			/*
-			 * Retrieve JSON Data from POST body
-			 */
 			JSONData jsonData = new JSONData(inMessage);
-			jsonData.processBody();
-
-			/*
-			 * Verify HMAC
-			 */
-			MbElement dataElement = inMessage.getRootElement().getFirstElementByPath("JSON/Data");
-			boolean verified = HMACAuthentication.verifyHMACHeader(hmacValue, dataElement.toBitstream(null, null, null, 0, 0, 0));
+			boolean verified;
+
+			if (HMAC_VERIFY_RAW_BITSTREAM) {
+				/*
+				 * Verify HMAC against the input bitstream before the body is parsed
+				 */
+				byte[] body = getInputBitstream(inMessage);
+				long start = StageMetrics.start();
+				verified = HMACAuthentication.verifyHMACHeader(hmacValue, body);
+				StageMetrics.record(StageMetrics.Stage.HMAC, start);
+
+				/*
+				 * Retrieve JSON Data from the verified POST body
+				 */
+				if (verified) {
+					start = StageMetrics.start();
+					jsonData.processBitstream(body);
+					StageMetrics.record(StageMetrics.Stage.PARSE, start);
+				}
+			}
+			else {
+				/*
+				 * Retrieve JSON Data from POST body
+				 */
+				long start = StageMetrics.start();
+				jsonData.processBody();
+				StageMetrics.record(StageMetrics.Stage.PARSE, start);
+
+				/*
+				 * Verify HMAC
+				 */
+				start = StageMetrics.start();
+				MbElement dataElement = inMessage.getRootElement().getFirstElementByPath("JSON/Data");
+				verified = HMACAuthentication.verifyHMACHeader(hmacValue, dataElement.toBitstream(null, null, null, 0, 0, 0));
+				StageMetrics.record(StageMetrics.Stage.HMAC, start);
+			}
 			
+			Logger.setCorrelationId(jsonData.sourceObjectId);
+
 			if (!verified) {
+            	StageMetrics.count(StageMetrics.Outcome.HMAC_REJECT);
             	String msg = "HMAC header was not confirmed";
             	Logger.error(method, msg, null);
             	setErrorOutput(vars, outLocalEnv, out, outMessage, outAssembly, 400, msg);
     			return;
 			}
 
+			/*
+			 * Answer duplicate and retried deliveries of an event already accepted
+			 */
+			if (WebhookDedupeCache.isEnabled()) {
+				String key = WebhookDedupeCache.keyOf(jsonData);
+				if (!WebhookDedupeCache.claim(key)) {
+					StageMetrics.count(StageMetrics.Outcome.DUPLICATE);
+					Logger.info(method, () -> "Duplicate delivery ignored, " + WebhookDedupeCache.getStats());
+					setMessageOutput(vars, outLocalEnv, out, outMessage, outAssembly, 200, "Duplicate delivery ignored");
+					return;
+				}
+				dedupeKey = key;
+			}
+
 			/*
 			 * Verify the Webhook receiverRegistrationId is handled by this client application
 			 */
             if ( (jsonData.receiverRegistrationId == null) || !jsonData.receiverRegistrationId.equals(Constants.WEBHOOK_RECEIVER_REGISTRATION_ID) )
             {
+            	StageMetrics.count(StageMetrics.Outcome.REGISTRATION_REJECT);
             	String msg = "Receiver registration Id is not allowed.";
             	Logger.error(method, msg, null);
             	setErrorOutput(vars, outLocalEnv, out, outMessage, outAssembly, 400, msg);
@@ -104,60 +182,62 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
                 Logger.info(method, "Receiver registration Id verified");
             }
 
-
             /*
-             * GraphQL example - PING
+             * Record the accepted event in the local spool before it is acknowledged
              */
-        	String graphQLSchema = String.format(GraphQLCallTemplate.PING_CONTENTSERVICE_SERVER, jsonData.objectStoreId);
-            JSONObject jsonGraphQLResponse = GraphQLAPIUtil.callGraphQLAPI(graphQLSchema, false);
-
-            Logger.info(method, "PING response JSON: " + jsonGraphQLResponse.toString());
-
-            int status = hasJSONErrors(jsonGraphQLResponse, "Error from GraphQL ping");
-            if ( status != 0 )
-            {
-            	String msg = "Error contacting GraphQL server";
-            	Logger.error(method, msg, null);
-            	setErrorOutput(vars, outLocalEnv, out, outMessage, outAssembly, 400, msg);
-                return;
-            }
-			
-        	/*
-        	 * GraphQL example - Retrieve the document annotation
-        	 */
-            graphQLSchema = String.format(GraphQLCallTemplate.GET_DOC_ANNOTATIONS, jsonData.objectStoreId, jsonData.sourceObjectId);
-            JSONObject jsonGraphQLAnno = GraphQLAPIUtil.callGraphQLAPI(graphQLSchema, false);
-
-    		Logger.info(method, "Annotations response JSON: " + jsonGraphQLAnno.toString());
-    		
-            status = hasJSONErrors(jsonGraphQLAnno, "Error retrieving Webhook source document annotation");
-            if ( status != 0 )
-            {
-            	String msg = "Error retrieving annotation JSON";
-            	Logger.error(method, msg, null);
-            	setErrorOutput(vars, outLocalEnv, out, outMessage, outAssembly, 400, msg);
-                return;
+            if (EventSpool.isEnabled()) {
+            	EventSpool spool = EventSpool.getShared();
+            	try {
+            		if (spool == null) {
+            			throw new IOException("Event spool is not open");
+            		}
+            		spoolSequence = spool.append(jsonData.getFields());
+            	}
+            	catch (IOException ioe) {
+            		StageMetrics.count(StageMetrics.Outcome.OVERLOADED);
+                	String msg = "Event spool is unavailable";
+                	Logger.error(method, msg, ioe);
+                	setErrorOutput(vars, outLocalEnv, out, outMessage, outAssembly, 503, msg);
+                	return;
+            	}
             }
 
-            Logger.info(method, "Event source object annotation retrieved from the CPE, parsing the KVPTable");
-
-            JSONArray jsonKVPTable = getKVPTableFromAnnotation(jsonData.sourceObjectId, jsonData.objectStoreId, jsonGraphQLAnno);
-            if ( jsonKVPTable == null )
-            {
-            	String msg = "Failed to parse the KVPTable from the Annotation JSON";
-                Logger.warn(method, "sourceObjectId: " + jsonData.sourceObjectId + "Failed to retrieve the annotation KVPTable");
-            	setErrorOutput(vars, outLocalEnv, out, outMessage, outAssembly, 400, msg);
-                return;
+            if (EnrichmentWorkerPool.isEnabled()) {
+            	/*
+            	 * Fast acknowledge, enrich the event on the worker pool
+            	 */
+            	String key = dedupeKey;
+            	long sequence = spoolSequence;
+            	boolean accepted = EnrichmentWorkerPool.submit(jsonData.sourceObjectId, () -> enrich(jsonData, sequence), () -> {
+            		// Let the next delivery of an event that failed be processed
+            		if (key != null) {
+            			WebhookDedupeCache.release(key);
+            		}
+            	});
+            	if (!accepted) {
+            		StageMetrics.count(StageMetrics.Outcome.OVERLOADED);
+                	String msg = "Enrichment queue is full";
+                	Logger.error(method, msg, null);
+                	setErrorOutput(vars, outLocalEnv, out, outMessage, outAssembly, 503, msg);
+                	return;
+            	}
+
+            	processed = true;
+            	setMessageOutput(vars, outLocalEnv, out, outMessage, outAssembly, 202, "The finalization was accepted for processing.");
+            	Logger.info(method, "Finalization: Accepted");
+            	return;
             }
 
-            Logger.info(method, "sourceObjectId: " + jsonData.sourceObjectId + "\n    jsonKVPTable: " + jsonKVPTable.toString(2));
-
-            // Write the KVPTable results to an output file
-            synchronized (lock)
-            {
-                writeKVPResults(jsonKVPTable, jsonData.sourceObjectId);
+            try {
+            	// enrich counts its own outcome
+            	enriching = true;
+            	enrich(jsonData, spoolSequence);
+            }
+            catch (EnrichmentException ee) {
+            	Logger.error(method, ee.getMessage(), null);
+            	setErrorOutput(vars, outLocalEnv, out, outMessage, outAssembly, ee.getStatusCode(), ee.getMessage());
+            	return;
             }
-
 
 			/*
 			 * Set return message
@@ -165,17 +245,49 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
 			vars.assign("message", "The finalization was added to some database.");
 			outMessage.getRootElement().createElementAsLastChild("JSON");
 			outMessage.getRootElement().evaluateXPath("?JSON/?Data/?message[set-value($message)]", vars);
+			processed = true;
 
 		} catch (MbException e) {
+			if (!enriching) {
+				StageMetrics.count(StageMetrics.Outcome.ERROR);
+			}
 			// Re-throw to allow Broker handling of MbException
 			throw e;
+		} catch (ContentServicesException e) {
+			if (!enriching) {
+				StageMetrics.count(e.isRejected() ? StageMetrics.Outcome.OVERLOADED : StageMetrics.Outcome.ERROR);
+			}
+			// Reply to calls rejected by the concurrency limiter or circuit breaker, re-throw other failures
+			if (!e.isRejected()) {
+				throw e;
+			}
+			Logger.error(method, e.getMessage(), null);
+			setErrorOutput(vars, outLocalEnv, out, outMessage, outAssembly, e.getStatusCode(), e.getMessage());
+			return;
 		} catch (RuntimeException e) {
+			if (!enriching) {
+				StageMetrics.count(StageMetrics.Outcome.ERROR);
+			}
 			// Re-throw to allow Broker handling of RuntimeException
 			throw e;
 		} catch (Exception e) {
+			if (!enriching) {
+				StageMetrics.count(StageMetrics.Outcome.ERROR);
+			}
 			// Consider replacing Exception with type(s) thrown by user code
 			// Example handling ensures all exceptions are re-thrown to be handled in the flow
 			throw new MbUserException(this, method, "", "", e.toString(), null);
+		} finally {
+			// Let the next delivery of an event that failed be processed
+			if (dedupeKey != null && !processed) {
+				WebhookDedupeCache.release(dedupeKey);
+			}
+			// The sender retries an event answered with an error, do not replay it
+			EventSpool spool = EventSpool.getShared();
+			if (spoolSequence != 0 && !processed && spool != null) {
+				spool.markDone(spoolSequence);
+			}
+			StageMetrics.record(StageMetrics.Stage.REQUEST, requestStart);
 		}
 		
 		// The following should only be changed
@@ -185,6 +297,135 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
 		Logger.info(method, "Finalization: Done");
 	}
 
+
+    /**
+     * Enriches a verified webhook event: retrieves the source document
+     * annotations, downloads the annotation KVPTable and queues it to be
+     * written. Runs on the flow thread, or on the {@link EnrichmentWorkerPool}
+     * in fast acknowledge mode.
+     * 
+     * The event is marked done in the {@link EventSpool} once its results are
+     * written. An acknowledged event whose enrichment fails with a retryable
+     * error (I/O error, server error, throttling or a rejected call) stays in
+     * the spool and is replayed on the next start; one that fails with a
+     * client error is removed from the spool.
+     * 
+     * @param jsonData
+     *            verified webhook event
+     * @param spoolSequence
+     *            sequence number of the event in the spool, or 0
+     * @throws EnrichmentException
+     *             with the HTTP status code and message to reply with
+     * @throws Exception
+     */
+    private void enrich(JSONData jsonData, long spoolSequence) throws Exception
+    {
+        String method = "Finalization_JavaCompute.enrich: ";
+
+        long enrichStart = StageMetrics.start();
+        StageMetrics.Outcome outcome = StageMetrics.Outcome.GRAPHQL_ERROR;
+        try
+        {
+            /*
+             * Content Services availability, from the background health prober
+             */
+            long start = StageMetrics.start();
+            boolean available = ContentServicesHealth.isAvailable(jsonData.objectStoreId);
+            StageMetrics.record(StageMetrics.Stage.PING, start);
+            if ( !available )
+            {
+                // Retryable, the cached status may come from a single failed probe
+                String msg = "Error contacting GraphQL server";
+                throw new EnrichmentException(503, msg);
+            }
+
+            /*
+             * GraphQL example - Retrieve the document annotation
+             */
+            start = StageMetrics.start();
+            JSONObject jsonGraphQLAnno = ANNOTATION_LOOKUPS.lookup(jsonData.objectStoreId, jsonData.sourceObjectId);
+            StageMetrics.record(StageMetrics.Stage.ANNOTATIONS, start);
+
+            Logger.payload(method, Logger.Level.DEBUG, "Annotations response JSON: ", jsonGraphQLAnno::write);
+
+            int status = hasJSONErrors(jsonGraphQLAnno, "Error retrieving Webhook source document annotation");
+            if ( status != 0 )
+            {
+                String msg = "Error retrieving annotation JSON";
+                throw new EnrichmentException(isPermanent(status) ? 400 : 503, msg);
+            }
+
+            Logger.info(method, "Event source object annotation retrieved from the CPE, parsing the KVPTable");
+
+            outcome = StageMetrics.Outcome.DOWNLOAD_ERROR;
+            JSONArray jsonKVPTable = getKVPTableFromAnnotation(jsonData.sourceObjectId, jsonData.objectStoreId, jsonGraphQLAnno);
+            if ( jsonKVPTable == null )
+            {
+                String msg = "Failed to parse the KVPTable from the Annotation JSON";
+                Logger.warn(method, "sourceObjectId: " + jsonData.sourceObjectId + "Failed to retrieve the annotation KVPTable");
+                throw new EnrichmentException(400, msg);
+            }
+
+            Logger.payload(method, Logger.Level.DEBUG, "sourceObjectId: " + jsonData.sourceObjectId + "\n    jsonKVPTable: ", jsonKVPTable::write);
+
+            // Queue the KVPTable results to be written to the output file
+            outcome = StageMetrics.Outcome.OVERLOADED;
+            if ( !writeKVPResults(jsonKVPTable, jsonData.sourceObjectId, spoolSequence) )
+            {
+                String msg = "Result writer queue is full";
+                throw new EnrichmentException(503, msg);
+            }
+            outcome = StageMetrics.Outcome.OK;
+        }
+        catch (EnrichmentException e)
+        {
+            if (isPermanent(e.getStatusCode()))
+            {
+                removeFromSpool(spoolSequence, e.getMessage());
+            }
+            throw e;
+        }
+        catch (ContentServicesException e)
+        {
+            if (e.isRejected())
+            {
+                outcome = StageMetrics.Outcome.OVERLOADED;
+            }
+            else if (isPermanent(e.getStatusCode()))
+            {
+                removeFromSpool(spoolSequence, e.getMessage());
+            }
+            throw e;
+        }
+        finally
+        {
+            StageMetrics.count(outcome);
+            StageMetrics.record(StageMetrics.Stage.ENRICH, enrichStart);
+        }
+    }
+
+    /**
+     * Returns true for a client error status, a failure that retrying the
+     * event cannot fix. Throttling (429) and server errors are retryable.
+     */
+    private static boolean isPermanent(int statusCode)
+    {
+        return statusCode >= 400 && statusCode < 500 && statusCode != 429;
+    }
+
+    /**
+     * Removes an event whose enrichment failed permanently from the spool, so
+     * that it is not replayed on every start
+     */
+    private static void removeFromSpool(long spoolSequence, String reason)
+    {
+        EventSpool spool = (spoolSequence != 0) ? EventSpool.getShared() : null;
+        if (spool != null)
+        {
+            spool.markFailed(spoolSequence, reason);
+        }
+    }
+
 	private String processHTTPInputHeaders(MbXPathVariables vars, MbMessage inMessage, MbMessage outLocalEnv, 
 										  MbMessage outMessage, MbMessageAssembly outAssembly) throws MbException
 	{
@@ -201,11 +442,34 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
 		}
 		
 		String hmac = temp.getValueAsString();
-		Logger.info(method, "Hmac header = " + hmac);
+		Logger.debug(method, () -> "Hmac header = " + hmac);
 		
 		return hmac;
 	}
 
+	/**
+	 * Returns the request body as received. With the BLOB domain on the
+	 * HTTPInput node this is the BLOB/BLOB value. With the JSON domain the body
+	 * is parsed on demand, and serializing the body element before it has been
+	 * accessed returns the input bitstream without parsing it.
+	 * 
+	 * @param inMessage
+	 *            the input message
+	 * @return the request body bytes
+	 * @throws MbException
+	 */
+	private byte[] getInputBitstream(MbMessage inMessage) throws MbException
+	{
+		MbElement root = inMessage.getRootElement();
+
+		MbElement blob = root.getFirstElementByPath("BLOB/BLOB");
+		if (blob != null) {
+			return (byte[]) blob.getValue();
+		}
+
+		return root.getLastChild().toBitstream(null, null, null, 0, 0, 0);
+	}
+
 	private int hasJSONErrors(JSONObject jsonGraphQLResponse, String errorPrefix)
     {
         int status = 0;
@@ -236,7 +500,7 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
                 }
 
                 // Return with the exception
-                Logger.info("hasJSONErrors", errorPrefix + ", " + errorMessage);
+                Logger.info("hasJSONErrors", () -> errorPrefix + ", " + errorMessage);
             }
         }
 
@@ -244,84 +508,40 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
     }
 	 
 	/**
-     * Iterate through KVPTable entries, write the document type, key classes
-     *  and key class values from the table to a text file
+     * Format the document type, key classes and key class values from the
+     *  KVPTable and queue them to be written to a text file
      * 
      * @param jsonKVPTable
      *            JSONArray containing key classes and key class values
      * @param documentId
      *            Id of the source document
+     * @param spoolSequence
+     *            sequence number of the event to mark done in the spool once
+     *            the results are written, or 0
      *            
-     * @return void
+     * @return true if the results were queued, false if the writer queue is full
 	 * @throws Exception 
      */
-    private void writeKVPResults(JSONArray jsonKVPTable, String documentId) throws Exception
+    private boolean writeKVPResults(JSONArray jsonKVPTable, String documentId, long spoolSequence) throws Exception
     {
         String method = "WebhookReceiver.writeKVPResults: ";
 
-        FileWriter fw = null;
-        BufferedWriter bw = null;
-
         try
         {
-            fw = new FileWriter(Constants.FINALIZE_DOC_LIST, true);
-            bw = new BufferedWriter(fw);
-            PrintWriter pw = new PrintWriter(bw);
-            
-            pw.write("Document:"+ documentId + "\n");
-
-            if ( (jsonKVPTable != null) && (jsonKVPTable.length() > 0) )
-            {
-                // Iterate through all KVPTable elements
-                for (int i = 0, size = jsonKVPTable.length(); i < size; i++)
-                {
-                  StringBuffer sb = new StringBuffer("  ");
-
-                  JSONObject arrayObj = jsonKVPTable.getJSONObject(i);
-                  String[] elementNames = JSONObject.getNames(arrayObj);
-
-                  // Iterate though all KVPTable element names
-                  for (String elementName : elementNames)
-                  {
-                      // Append the required element name and value
-                      if ( elementName.equals("KeyClass") || elementName.equals("Key") || elementName.equals("Value") || elementName.equals("KeyClassConfidence") )
-                      {
-                    	  if (arrayObj.isNull(elementName)) {
-                              sb.append(elementName + ":null  ");
-                    	  } else {
-                              sb.append(elementName + ":" + arrayObj.getString(elementName) + "  ");
-                    	  }
-                      }
-                  }
-                  pw.write(sb.toString() + "\n");
+            EventSpool spool = (spoolSequence != 0) ? EventSpool.getShared() : null;
+            long start = StageMetrics.start();
+            return KVPResultWriter.submit(KVPResultWriter.formatKVPResults(jsonKVPTable, documentId), () -> {
+                StageMetrics.record(StageMetrics.Stage.WRITE, start);
+                if (spool != null) {
+                    spool.markDone(spoolSequence);
                 }
-            }
-            else
-            {
-                pw.write("    No KVPTable elements found for document.\n");
-            }
-            pw.flush();
-            pw.close();
+            });
         } 
         catch (Exception e)
         {
             Logger.error(method, "Failure parsing jsonKVPTable JSON: ", e);
             throw e;
         }
-        finally
-        {
-            try
-            {
-                fw.close();
-            }
-            catch(Exception e) {/* ignore */}
-            
-            try
-            {
-                bw.close();
-            }
-            catch(Exception e) {/* ignore */}
-        }
     }
     
 	/**
@@ -350,6 +570,20 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
         	JSONObject jsonAnnotations = jsonDocument.getJSONObject("annotations");
         	JSONArray jsonAnnos = jsonAnnotations.getJSONArray("annotations");
 
+            if ( AnnotationFanOut.isEnabled() )
+            {
+                // Download every annotation content element concurrently and merge in page order
+                List<AnnotationFanOut.AnnotationRef> refs = AnnotationFanOut.parseAnnotationRefs(jsonGraphQLAnno);
+                if ( refs.isEmpty() )
+                {
+                    Logger.warn(method, "No annotations found for sourceObjectId: " + sourceObjectId);
+                    return null;
+                }
+
+                Logger.info(method, () -> "Retrieving " + refs.size() + " annotation content elements  objectStoreId: " + objectStoreId);
+                return AnnotationFanOut.downloadAll(objectStoreId, refs);
+            }
+
             if ( jsonAnnos.length() > 0 )
             {
             	JSONObject annot = (JSONObject)jsonAnnos.get(0);
@@ -361,7 +595,7 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
                 	JSONObject element = (JSONObject)jsonContentElements.get(0);
                     Integer elemSeqNbr = element.getInt("elementSequenceNumber");
 
-                    Logger.info(method, "Retrieving annotation  objectStoreId: " + objectStoreId + "annotationId: " + 
+                    Logger.info(method, () -> "Retrieving annotation  objectStoreId: " + objectStoreId + "annotationId: " + 
                     					annotationId + " elementSequenceNumber: " + elemSeqNbr.toString());
 
                     jsonKVPTable = HttpDownloadUtil.getAnnotationContent(objectStoreId, annotationId, elemSeqNbr);
@@ -400,6 +634,21 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
 		out.propagate(outAssembly);
     }
     
+    /**
+     * Sets the HTTP reply status code and message, and propagates the message
+     */
+    private void setMessageOutput(MbXPathVariables vars, MbMessage outLocalEnv, MbOutputTerminal out, 
+    									MbMessage outMessage, MbMessageAssembly outAssembly, int code, String message) 
+    									throws MbException
+    {
+		vars.assign("statuscode", code);
+		vars.assign("message", message);
+		outLocalEnv.getRootElement().evaluateXPath("?Destination/?HTTP/?ReplyStatusCode[set-value($statuscode)]", vars);
+		outMessage.getRootElement().createElementAsLastChild("JSON");
+		outMessage.getRootElement().evaluateXPath("?JSON/?Data/?message[set-value($message)]", vars);
+		out.propagate(outAssembly);
+    }
+    
     /**
      * Logs details of the source object contained in the JSON payload
      * 
@@ -417,8 +666,7 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
     {
         String method = "Finalization_JavaCompute.logSourceObject: ";
 
-        String graphQLSchema = String.format(GraphQLCallTemplate.GET_DOCUMENT, objectStoreId, sourceObjectId);
-        JSONObject jsonGraphQLResponse = GraphQLAPIUtil.callGraphQLAPI(graphQLSchema, false);
+        JSONObject jsonGraphQLResponse = GraphQLAPIUtil.callGraphQLAPI(GET_DOCUMENT, false, objectStoreId, sourceObjectId);
 
         int status = hasJSONErrors(jsonGraphQLResponse, method + "Error retrieving Webhook source document");
 
@@ -465,7 +713,7 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
         String envVar;
         envVar = System.getenv(Constants.CPE_SERVICE_USER);
         if (envVar != null) {
-            Logger.debug(method, "CPE_SERVICE_USER = " + envVar);
+            Logger.debug(method, () -> "CPE_SERVICE_USER = " + envVar);
         } else {
             Logger.debug(method, "CPE_SERVICE_USER not found");
         }
@@ -517,6 +765,7 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
 	 */
 	@Override
 	public void onSetup() throws MbException {
+		acquireSharedResources();
 	}
 
 	/**
@@ -527,6 +776,9 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
 	 */
 	@Override
 	public void onStart() throws MbException {
+		// Restarted after onStop without a tear down
+		acquireSharedResources();
+		replaySpool();
 	}
 
 	/**
@@ -542,6 +794,9 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
 	 */
 	@Override
 	public void onStop(boolean wait) throws MbException {
+		if (wait) {
+			releaseSharedResources();
+		}
 	}
 
 	/**
@@ -552,6 +807,109 @@ public class Finalization_JavaCompute extends MbJavaComputeNode {
 	 */
 	@Override
 	public void onTearDown() throws MbException {
+		releaseSharedResources();
+	}
+
+	private void acquireSharedResources() {
+		if (!sharedResourcesAcquired) {
+			HttpClientPool.acquire();
+			BearerTokenManager.acquire();
+			ContentServicesHealth.acquire();
+			KVPResultWriter.acquire();
+			AnnotationFanOut.acquire();
+			EnrichmentWorkerPool.acquire();
+			EventSpool.acquire();
+			StageMetrics.acquire();
+			LogAppender.acquire();
+			sharedResourcesAcquired = true;
+		}
+	}
+
+	/**
+	 * Processes again the events recovered from the spool, the events that
+	 * were accepted but not written before the flow was stopped. They are
+	 * enriched on the worker pool in fast acknowledge mode, otherwise on a
+	 * separate thread so that the start of the flow is not delayed.
+	 */
+	private void replaySpool() {
+		String method = "Finalization_JavaCompute.replaySpool: ";
+
+		EventSpool spool = EventSpool.getShared();
+		if (spool == null) {
+			return;
+		}
+
+		List<EventSpool.Entry> entries = spool.takeRecovered();
+		if (entries.isEmpty()) {
+			return;
+		}
+
+		Logger.info(method, "Replaying " + entries.size() + " events from the spool");
+
+		Thread replay = new Thread(() -> {
+			for (EventSpool.Entry entry : entries) {
+				JSONData jsonData = new JSONData(null);
+				jsonData.setFields(entry.fields);
+
+				// Ignore redeliveries of the event while it is replayed
+				String key = null;
+				if (WebhookDedupeCache.isEnabled()) {
+					key = WebhookDedupeCache.keyOf(jsonData);
+					if (!WebhookDedupeCache.claim(key)) {
+						// A redelivery of the event is being processed and has its own spool record
+						Logger.info(method, "Event " + entry.sequence + " was redelivered, it is not replayed");
+						spool.markDone(entry.sequence);
+						continue;
+					}
+				}
+
+				// Let redeliveries of an event whose replay failed be processed
+				String claimed = key;
+				Runnable releaseClaim = () -> {
+					if (claimed != null) {
+						WebhookDedupeCache.release(claimed);
+					}
+				};
+
+				if (EnrichmentWorkerPool.isEnabled()) {
+					if (!EnrichmentWorkerPool.submit(jsonData.sourceObjectId, () -> enrich(jsonData, entry.sequence), releaseClaim)) {
+						Logger.warn(method, "Enrichment queue is full, event " + entry.sequence + " is kept in the spool");
+						releaseClaim.run();
+					}
+					continue;
+				}
+
+				try {
+					Logger.setCorrelationId(jsonData.sourceObjectId);
+					enrich(jsonData, entry.sequence);
+				}
+				catch (Exception e) {
+					Logger.error(method, "Failure replaying event " + entry.sequence, e);
+					releaseClaim.run();
+				}
+				finally {
+					Logger.clearCorrelationId();
+				}
+			}
+		}, "EventSpool-replay");
+		replay.setDaemon(true);
+		replay.start();
+	}
+
+	private void releaseSharedResources() {
+		if (sharedResourcesAcquired) {
+			// Drain queued enrichment while the resources it uses are still available
+			EnrichmentWorkerPool.release();
+			AnnotationFanOut.release();
+			KVPResultWriter.release();
+			EventSpool.release();
+			StageMetrics.release();
+			ContentServicesHealth.release();
+			BearerTokenManager.release();
+			HttpClientPool.release();
+			LogAppender.release();
+			sharedResourcesAcquired = false;
+		}
 	}
 
 }
@@ -19,41 +19,70 @@
  * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
  */
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 // Basic authentication
 //import java.util.Base64;
 
-import javax.net.ssl.SSLContext;
-
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
-import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.cookie.BasicClientCookie;
-import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 /**
  * Utility class for handling calls to the Content Services GraphQL API.
  * 
- * This class will use the TLS 1.2 protocol for calls to the GraphQL API. If a
- * different protocol is required, the protocol can be changed in the code for
- * this class.
+ * Calls are made with the shared pooled client from {@link HttpClientPool},
+ * which uses the TLS 1.2 protocol for calls to the GraphQL API.
  */
 public class GraphQLAPIUtil 
 {
+    /**
+     * Handles calls to the Content Services GraphQL API with a compiled query.
+     * 
+     * @param query
+     *            compiled GraphQL query, see {@link GraphQLCallTemplate}
+     * @param bAdminUser
+     *            call as the service account instead of the client account
+     * @param variables
+     *            values of the query variables, in the order they are declared
+     * @return Response for the call to the Content Services GraphQL API
+     * @throws Exception 
+     */
+    public static JSONObject callGraphQLAPI(GraphQLQuery query, boolean bAdminUser, String... variables) throws Exception
+    {
+        String method = "GraphQLAPIUtil.callGraphQLAPI: ";
+        Logger.debug(method, () -> "graphQLQuery: " + query.getName() + ", variables: " + Arrays.toString(variables));
+
+        boolean hashOnly = query.isHashOnly();
+        JSONObject jsonGraphQLResponse = execute(query.newEntity(hashOnly, variables), query.isQuery(), bAdminUser);
+
+        // The server no longer knows the persisted query, or does not support persisted queries; send the query text
+        if ( query.onResponse(hashOnly, jsonGraphQLResponse) )
+        {
+            jsonGraphQLResponse = execute(query.newEntity(false, variables), query.isQuery(), bAdminUser);
+            query.onResponse(false, jsonGraphQLResponse);
+        }
+
+        return jsonGraphQLResponse;
+    }
+
     /**
      * Handles calls to the Content Services GraphQL API.
      * 
@@ -66,12 +95,39 @@ public class GraphQLAPIUtil
     public static JSONObject callGraphQLAPI(String graphQLCommand, boolean bAdminUser) throws Exception
     {
         String method = "GraphQLAPIUtil.callGraphQLAPI: ";
-        Logger.debug(method, "graphQLCommand: " + graphQLCommand);
+        Logger.debug(method, () -> "graphQLCommand: " + graphQLCommand);
+
+        // Pass GraphQL API call via the value for a query parameter using JSON.
+        JSONObject jsonGraphQLCommand = new JSONObject();
+
+        jsonGraphQLCommand.put("query", graphQLCommand);
+
+        // Only queries are retried
+        String command = graphQLCommand.trim();
+        boolean idempotent = command.startsWith("{") || command.startsWith("query");
+
+        return execute(new StringEntity(jsonGraphQLCommand.toString(), ContentType.APPLICATION_JSON), idempotent, bAdminUser);
+    }
+
+    /**
+     * Posts a request body to the Content Services GraphQL API through the
+     * GraphQL circuit breaker, retrying idempotent calls
+     */
+    private static JSONObject execute(HttpEntity entity, boolean idempotent, boolean bAdminUser) throws Exception
+    {
+        return ContentServicesCall.call(ContentServicesCall.GRAPHQL, idempotent, () -> post(entity, bAdminUser));
+    }
+
+    /**
+     * Posts a request body to the Content Services GraphQL API
+     */
+    private static JSONObject post(HttpEntity entity, boolean bAdminUser) throws Exception
+    {
+        String method = "GraphQLAPIUtil.post: ";
 
         JSONObject jsonGraphQLResponse = null;
-        HttpResponse response = null;
-        CloseableHttpClient httpClient = null;
-        BufferedReader breader = null;
+        CloseableHttpResponse response = null;
+        Reader reader = null;
 
         try
         {
@@ -82,25 +138,10 @@ public class GraphQLAPIUtil
             //String csServerUsername = CSServerInfo.CS_SERVER_USERNAME;
             //String csServerPassword = CSServerInfo.CS_SERVER_PASSWORD;
 
-             /*
-             * Create HTTPClient and have it use TLSv1.2. If you do not wish to
-             * force TLSv1.2 to be used, you can change the protocol or completely 
-             * remove the setSSLSocketFactory() call from the HttpClientBuilder call.
-             */
-             SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(new TrustSelfSignedStrategy()).build();
-
-             SSLConnectionSocketFactory sslConnectionSocketFactory =
-                  new SSLConnectionSocketFactory(
-                  sslContext,
-                  new String[] {"TLSv1.2"},
-                  null,
-                  SSLConnectionSocketFactory.getDefaultHostnameVerifier());
-             
-            HttpClientBuilder clientBuilder = HttpClientBuilder.create();
-            clientBuilder.setSSLSocketFactory(sslConnectionSocketFactory);
-            CookieStore cookieStore = new BasicCookieStore();
-            clientBuilder.setDefaultCookieStore(cookieStore);
-            httpClient = clientBuilder.build();
+            // Use the shared pooled client; cookies are kept per request
+            CloseableHttpClient httpClient = HttpClientPool.getClient();
+            HttpClientContext context = HttpClientPool.newContext();
+            CookieStore cookieStore = context.getCookieStore();
 
             // Basic authentication
             //String credentials = csServerUsername + ":" + csServerPassword;
@@ -111,16 +152,8 @@ public class GraphQLAPIUtil
             // UMS authentication
             try
             {
-                if ( bAdminUser )
-                {
-                    // Use a CPEServiceAccount to get the bearer token
-                    bearerToken = CPEServiceAccount.getInstance().getBearerToken();
-                }
-                else
-                {
-                    // Use a CPEClientAccount to get the bearer token
-                    bearerToken = CPEClientAccount.getInstance().getBearerToken();
-                }
+                // Use the cached CPEServiceAccount or CPEClientAccount bearer token
+                bearerToken = BearerTokenManager.getBearerToken(bAdminUser);
 
                 if ( (bearerToken == null) || (bearerToken.length() == 0) )
                 {
@@ -129,8 +162,6 @@ public class GraphQLAPIUtil
                     throw new RuntimeException(msg);
 //                    return null;
                 }
-
-                Logger.debug(method, "bearerToken: " + bearerToken); 
             }
             catch(Exception e)
             {
@@ -153,6 +184,7 @@ public class GraphQLAPIUtil
 
             httpPost.addHeader("content-type", "application/json");
             httpPost.addHeader("Accept", "application/json");
+            ContentEncoding.accept(httpPost);
             httpPost.addHeader("ECM-CS-XSRF-Token", "1f4a07b4-7161-44f0-bb8d-d7ac8add2b9c");
             
             // Create the ECM-CS-XSRF-Token cookie that matches the value in the header
@@ -161,73 +193,57 @@ public class GraphQLAPIUtil
             cookie.setPath("/");            	
             cookieStore.addCookie(cookie);            
 
-            // Pass GraphQL API call via the value for a query parameter using JSON.
-            JSONObject jsonGraphQLCommand = new JSONObject();
-
-            jsonGraphQLCommand.put("query", graphQLCommand);
-
-            StringEntity jsonQueryEntity = new StringEntity(jsonGraphQLCommand.toString());
-
-            httpPost.setEntity(jsonQueryEntity);
+            httpPost.setEntity(entity);
 
             // Trace statement logs GraphQL API call arguments
-            Logger.debug(method, "csServerURL: " + csServerURL + " httpPost: " + httpPost.toString());
+            Logger.debug(method, () -> "csServerURL: " + csServerURL + " httpPost: " + httpPost.toString());
 
             // Handle the response
-            response = httpClient.execute(httpPost);
+            response = httpClient.execute(httpPost, context);
 
             StatusLine statusLine = response.getStatusLine();
 
             if ( statusLine.getStatusCode() == 200 )
             {
-                // Get response string
-                breader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-
-                StringBuilder responseString = new StringBuilder();
-
-                String line = "";
-
-                while ((line = breader.readLine()) != null)
-                {
-                    responseString.append(line);
-                }
-
-                String responseGraphQL = responseString.toString();
-                jsonGraphQLResponse = new JSONObject(responseGraphQL);
+                // Parse the response as it is read and decompressed
+                reader = new InputStreamReader(ContentEncoding.decode(response.getEntity()), StandardCharsets.UTF_8);
+                jsonGraphQLResponse = new JSONObject(new JSONTokener(reader));
 
-                Logger.debug(method, "jsonGraphQLResponse: " + jsonGraphQLResponse.toString(2) + "\n\n");
+                Logger.payload(method, Logger.Level.DEBUG, "jsonGraphQLResponse: ", jsonGraphQLResponse::write);
             }
             else
             {
-                throw new RuntimeException("GraphQL response code: " + statusLine.toString());
+                // Consume the error body so the connection can be returned to the pool
+                EntityUtils.consumeQuietly(response.getEntity());
+                throw new ContentServicesException(statusLine.getStatusCode(), "GraphQL response code: " + statusLine.toString());
             }
         }
         finally
         {
-            // Close the Buffered Reader
+            // Close the response reader
             try
             {
-                if (breader != null)
+                if (reader != null)
                 {
-                    breader.close();
+                    reader.close();
                 }
             }
             catch (IOException e)
             {
-                Logger.error(method, "Failure closing BufferedReader: ", e);
+                Logger.error(method, "Failure closing response Reader: ", e);
             }
 
-            // Close the HTTP connection
+            // Release the HTTP connection back to the pool
             try
             {
-                if (httpClient != null)
+                if (response != null)
                 {
-                    httpClient.close();
+                    response.close();
                 }
             }
             catch (IOException ioe)
             {
-                Logger.error(method, "Failure closing CloseableHttpClient: ", ioe);
+                Logger.error(method, "Failure closing CloseableHttpResponse: ", ioe);
             }
         }
 
@@ -28,9 +28,10 @@ import java.util.Properties;
  * This class is used for keeping track of templates for various GraphQL calls.
  * See GraphQLCallTemplate.properties for the GraphQL call templates. Modify the
  * templates in the GraphQLCallTemplate.properties file to change the calls used
- * by the Automated Document Processing Webhook Receiver application. Variables 
- * in the template are replaced with actual variables at runtime to create the 
- * actual calls to the Content Services GraphQL API.
+ * by the Automated Document Processing Webhook Receiver application. The
+ * templates declare their parameters as GraphQL variables and are compiled
+ * once into {@link GraphQLQuery} instances; the values of the variables are
+ * sent with each call to the Content Services GraphQL API.
  * 
  * The GraphQL call templates can be freely modified, as long as the code that
  * uses the templates is also modified as necessary. In particular, the Event
@@ -40,19 +41,19 @@ import java.util.Properties;
 public class GraphQLCallTemplate
 {
     /**
-     * Query for pinging the Content Services server. Parameters are bound to
-     * this string in the following order:
+     * Query for pinging the Content Services server. Variables are bound in
+     * the following order:
      * <p>
      * <ul>
      * <li>Name or GUID of the object store
      * </ul>
      * <p>
      */
-    public static final String PING_CONTENTSERVICE_SERVER;
+    public static final GraphQLQuery PING_CONTENTSERVICE_SERVER;
 
     /**
-     * Query for retrieving a document. Parameters are bound to this string in
-     * the following order:
+     * Query for retrieving a document. Variables are bound in the following
+     * order:
      * <p>
      * <ul>
      * <li>Name or GUID of the object store
@@ -60,19 +61,19 @@ public class GraphQLCallTemplate
      * </ul>
      * <p>
      **/
-    public static final String GET_DOCUMENT;
+    public static final GraphQLQuery GET_DOCUMENT;
 
     /**
-     * Query for retrieving a document annotation. Parameters are bound to this string in
-     * the following order:
+     * Query for retrieving a document annotation. Variables are bound in the
+     * following order:
      * <p>
      * <ul>
      * <li>Name or GUID of the object store
-     * <li>GUID of the annotation to fetch
+     * <li>GUID of the document whose annotations to fetch
      * </ul>
      * <p>
      **/
-    public static final String GET_DOC_ANNOTATIONS;
+    public static final GraphQLQuery GET_DOC_ANNOTATIONS;
 
     /**
      * GraphQL call template properties, loaded from
@@ -99,10 +100,10 @@ public class GraphQLCallTemplate
             Logger.error(method, "IOException loading GraphQLCallTemplate.properties", ioe);
         }
         
-        // Load constants from CS_SERVER_INFO
-        PING_CONTENTSERVICE_SERVER = getString("PING_CONTENTSERVICE_SERVER");
-        GET_DOCUMENT = getString("GET_DOCUMENT");
-        GET_DOC_ANNOTATIONS = getString("GET_DOC_ANNOTATIONS");
+        // Compile the query templates
+        PING_CONTENTSERVICE_SERVER = GraphQLQuery.compile("PING_CONTENTSERVICE_SERVER", getString("PING_CONTENTSERVICE_SERVER"));
+        GET_DOCUMENT = GraphQLQuery.compile("GET_DOCUMENT", getString("GET_DOCUMENT"));
+        GET_DOC_ANNOTATIONS = GraphQLQuery.compile("GET_DOC_ANNOTATIONS", getString("GET_DOC_ANNOTATIONS"));
     }
     
     /**
@@ -0,0 +1,549 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A GraphQL query compiled from a {@link GraphQLCallTemplate} template that
+ * declares its parameters as GraphQL variables, for example
+ * 
+ * <pre>
+ * query getDocument($repositoryIdentifier: String!, $identifier: String!) {
+ *   document(repositoryIdentifier: $repositoryIdentifier, identifier: $identifier) { ... }
+ * }
+ * </pre>
+ * 
+ * The query text is minified and encoded to the constant part of the request
+ * body once, so each call only writes the values of the variables, in the
+ * order they are declared in the template.
+ * 
+ * {@link #without(String...)} derives a query with selections removed, so a
+ * call site requests only the fields it reads.
+ * 
+ * With {@code GRAPHQL_PERSISTED_QUERIES} set, requests carry the SHA-256 hash
+ * of the query as an automatic persisted query; once the server has accepted
+ * the query, later requests send only the hash and the variables.
+ */
+public class GraphQLQuery
+{
+    private static final boolean PERSISTED = CSServerInfo.getBoolean("GRAPHQL_PERSISTED_QUERIES", false);
+
+    private final String name;
+    private final List<String> tokens;
+    private final String query;
+    private final List<String> variables;
+
+    private final byte[] queryPrefix;
+    private final byte[] persistedPrefix;
+    private final byte[] hashPrefix;
+
+    // The server has accepted the persisted query hash
+    private volatile boolean registered = false;
+    private volatile boolean persisted = PERSISTED;
+
+    private GraphQLQuery(String name, List<String> tokens)
+    {
+        this.name = name;
+        this.tokens = tokens;
+        this.query = join(tokens);
+        this.variables = Collections.unmodifiableList(declaredVariables(tokens));
+
+        String extensions = "\"extensions\":{\"persistedQuery\":{\"version\":1,\"sha256Hash\":\"" + sha256(query) + "\"}},";
+        String queryField = "{\"query\":" + JSONObject.quote(query) + ",";
+        this.queryPrefix = (queryField + "\"variables\":").getBytes(StandardCharsets.UTF_8);
+        this.persistedPrefix = (queryField + extensions + "\"variables\":").getBytes(StandardCharsets.UTF_8);
+        this.hashPrefix = ("{" + extensions + "\"variables\":").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compiles a query template
+     * 
+     * @param name
+     *            name of the template, used for logging
+     * @param template
+     *            GraphQL query text
+     * @return The compiled query, or null if the template is null
+     */
+    public static GraphQLQuery compile(String name, String template)
+    {
+        if (template == null)
+        {
+            return null;
+        }
+        return new GraphQLQuery(name, tokenize(template));
+    }
+
+    /**
+     * Returns a query with the given fields removed from its selection sets,
+     * together with their arguments and sub-selections. Fields are removed at
+     * every depth, so the names should be specific to the fields to remove.
+     * 
+     * @param fields
+     *            names of the fields to remove
+     * @return The pruned query
+     */
+    public GraphQLQuery without(String... fields)
+    {
+        Set<String> prune = new HashSet<String>(Arrays.asList(fields));
+        List<String> pruned = new ArrayList<String>(tokens.size());
+
+        int braces = 0;
+        int parens = 0;
+        for (int i = 0; i < tokens.size(); i++)
+        {
+            String token = tokens.get(i);
+            String previous = pruned.isEmpty() ? "" : pruned.get(pruned.size() - 1);
+
+            if (braces > 0 && parens == 0 && prune.contains(token) && !"...".equals(previous) && !"on".equals(previous)
+                    && !":".equals(previous) && !":".equals(next(i)))
+            {
+                // Skip the arguments, directives and sub-selection of the field
+                while ("(".equals(next(i)) || "@".equals(next(i)) || "{".equals(next(i)))
+                {
+                    if ("@".equals(next(i)))
+                    {
+                        i += 2;
+                    }
+                    else
+                    {
+                        i = skipBlock(i + 1);
+                    }
+                }
+                continue;
+            }
+
+            if ("{".equals(token))
+            {
+                braces++;
+            }
+            else if ("}".equals(token))
+            {
+                braces--;
+            }
+            else if ("(".equals(token))
+            {
+                parens++;
+            }
+            else if (")".equals(token))
+            {
+                parens--;
+            }
+            pruned.add(token);
+        }
+
+        return new GraphQLQuery(name, pruned);
+    }
+
+    /**
+     * Returns a query that repeats the root field of this query under the
+     * aliases {@code a0} to {@code a<count-1>}, to look up several objects in
+     * one call. The shared variable is declared once; each alias gets its own
+     * copy of the other variables, suffixed with its index. The variables of
+     * the batched query are the shared variable followed by the variables of
+     * each alias in turn.
+     * 
+     * @param count
+     *            number of aliases
+     * @param sharedVariable
+     *            name of the variable with the same value for all aliases
+     * @return The batched query
+     */
+    public GraphQLQuery batched(int count, String sharedVariable)
+    {
+        int open = tokens.indexOf("{");
+        int close = skipBlock(open);
+        int defsStart = tokens.subList(0, open).indexOf("(");
+        if (defsStart < 0 || !variables.contains(sharedVariable))
+        {
+            throw new IllegalArgumentException(name + " does not declare the variable " + sharedVariable);
+        }
+
+        // Split the variable definitions at each $
+        List<List<String>> definitions = new ArrayList<List<String>>();
+        int defsEnd = skipBlock(defsStart);
+        for (int i = defsStart + 1; i < defsEnd; i++)
+        {
+            if ("$".equals(tokens.get(i)))
+            {
+                definitions.add(new ArrayList<String>());
+            }
+            definitions.get(definitions.size() - 1).add(tokens.get(i));
+        }
+
+        List<String> batch = new ArrayList<String>();
+        batch.add(tokens.get(0));
+        batch.add((isWordChar(tokens.get(1).charAt(0)) ? tokens.get(1) : "lookup") + "Batch");
+        batch.add("(");
+        for (List<String> definition : definitions)
+        {
+            if (sharedVariable.equals(definition.get(1)))
+            {
+                batch.addAll(definition);
+            }
+        }
+        for (int a = 0; a < count; a++)
+        {
+            for (List<String> definition : definitions)
+            {
+                if (!sharedVariable.equals(definition.get(1)))
+                {
+                    batch.addAll(suffixed(definition, sharedVariable, a));
+                }
+            }
+        }
+        batch.add(")");
+
+        batch.add("{");
+        for (int a = 0; a < count; a++)
+        {
+            batch.add("a" + a);
+            batch.add(":");
+            batch.addAll(suffixed(tokens.subList(open + 1, close), sharedVariable, a));
+        }
+        batch.add("}");
+
+        return new GraphQLQuery(name + "Batch" + count, batch);
+    }
+
+    /**
+     * Returns the name of the template the query was compiled from
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns true if the operation is a query, which may be retried
+     */
+    public boolean isQuery()
+    {
+        return "query".equals(tokens.get(0)) || "{".equals(tokens.get(0));
+    }
+
+    /**
+     * Returns the minified query text
+     */
+    public String getQuery()
+    {
+        return query;
+    }
+
+    /**
+     * Returns the names of the variables, in the order they are declared
+     */
+    public List<String> getVariables()
+    {
+        return variables;
+    }
+
+    /**
+     * Returns true if the next request may send only the persisted query hash
+     */
+    public boolean isHashOnly()
+    {
+        return persisted && registered;
+    }
+
+    /**
+     * Returns the request body for a call to the GraphQL API
+     * 
+     * @param hashOnly
+     *            send only the persisted query hash instead of the query text
+     * @param values
+     *            values of the variables, in the order they are declared
+     * @return The JSON request body
+     */
+    public HttpEntity newEntity(boolean hashOnly, String... values)
+    {
+        return new ByteArrayEntity(toBytes(hashOnly, values), ContentType.APPLICATION_JSON);
+    }
+
+    /**
+     * Returns the request body for a call to the GraphQL API, encoded as UTF-8
+     * 
+     * @param hashOnly
+     *            send only the persisted query hash instead of the query text
+     * @param values
+     *            values of the variables, in the order they are declared
+     * @return The JSON request body
+     */
+    public byte[] toBytes(boolean hashOnly, String... values)
+    {
+        if (values.length != variables.size())
+        {
+            throw new IllegalArgumentException(name + " expects " + variables.size() + " variables " + variables + ", got " + values.length);
+        }
+
+        StringBuilder json = new StringBuilder(64);
+        json.append('{');
+        for (int i = 0; i < values.length; i++)
+        {
+            if (i > 0)
+            {
+                json.append(',');
+            }
+            json.append('"').append(variables.get(i)).append("\":").append(values[i] == null ? "null" : JSONObject.quote(values[i]));
+        }
+        json.append("}}");
+
+        // Once the server has reported that it does not support persisted queries, send the query text alone
+        byte[] prefix = hashOnly ? hashPrefix : persisted ? persistedPrefix : queryPrefix;
+        byte[] vars = json.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] body = Arrays.copyOf(prefix, prefix.length + vars.length);
+        System.arraycopy(vars, 0, body, prefix.length, vars.length);
+        return body;
+    }
+
+    /**
+     * Records the response of the server to a request, and returns true if the
+     * request must be sent again with the query text: a hash-only request the
+     * server did not find, or any request rejected because the server does not
+     * support persisted queries
+     * 
+     * @param hashOnly
+     *            the request sent only the persisted query hash
+     * @param jsonGraphQLResponse
+     *            response of the GraphQL API
+     */
+    public boolean onResponse(boolean hashOnly, JSONObject jsonGraphQLResponse)
+    {
+        if (!PERSISTED)
+        {
+            return false;
+        }
+
+        JSONArray errors = jsonGraphQLResponse == null ? null : jsonGraphQLResponse.optJSONArray("errors");
+        String error = (errors == null || errors.length() == 0) ? null : errors.optJSONObject(0) == null ? errors.get(0).toString()
+                : errors.getJSONObject(0).optString("message");
+
+        if (error != null && error.contains("PersistedQueryNotSupported"))
+        {
+            // Send the query text without the extensions from now on
+            persisted = false;
+            registered = false;
+            return true;
+        }
+        if (error != null && error.contains("PersistedQueryNotFound"))
+        {
+            registered = false;
+            return hashOnly;
+        }
+
+        registered = true;
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + ": " + query;
+    }
+
+    /**
+     * Returns the tokens with each variable other than the shared variable
+     * suffixed with the alias index
+     */
+    private static List<String> suffixed(List<String> tokens, String sharedVariable, int alias)
+    {
+        List<String> result = new ArrayList<String>(tokens.size());
+        for (int i = 0; i < tokens.size(); i++)
+        {
+            String token = tokens.get(i);
+            if (i > 0 && "$".equals(tokens.get(i - 1)) && !sharedVariable.equals(token))
+            {
+                token = token + "_" + alias;
+            }
+            result.add(token);
+        }
+        return result;
+    }
+
+    private String next(int i)
+    {
+        return i + 1 < tokens.size() ? tokens.get(i + 1) : "";
+    }
+
+    /**
+     * Returns the index of the token closing the block opened at the given index
+     */
+    private int skipBlock(int open)
+    {
+        int depth = 0;
+        int i = open;
+        for (; i < tokens.size(); i++)
+        {
+            String token = tokens.get(i);
+            if ("{".equals(token) || "(".equals(token))
+            {
+                depth++;
+            }
+            else if ("}".equals(token) || ")".equals(token))
+            {
+                if (--depth == 0)
+                {
+                    break;
+                }
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Splits GraphQL text into names, numbers, strings and punctuators,
+     * dropping white space and comments
+     */
+    private static List<String> tokenize(String text)
+    {
+        List<String> tokens = new ArrayList<String>();
+        int i = 0;
+        int n = text.length();
+        while (i < n)
+        {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || c == ',' || c == '\uFEFF')
+            {
+                i++;
+            }
+            else if (c == '#')
+            {
+                while (i < n && text.charAt(i) != '\n' && text.charAt(i) != '\r')
+                {
+                    i++;
+                }
+            }
+            else if (c == '"')
+            {
+                int start = i++;
+                while (i < n && text.charAt(i) != '"')
+                {
+                    i += text.charAt(i) == '\\' ? 2 : 1;
+                }
+                tokens.add(text.substring(start, Math.min(++i, n)));
+            }
+            else if (c == '.' && text.startsWith("...", i))
+            {
+                tokens.add("...");
+                i += 3;
+            }
+            else if (isWordChar(c) || c == '-')
+            {
+                int start = i++;
+                while (i < n && (isWordChar(text.charAt(i)) || text.charAt(i) == '.'))
+                {
+                    i++;
+                }
+                tokens.add(text.substring(start, i));
+            }
+            else
+            {
+                tokens.add(String.valueOf(c));
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Joins tokens with a space only between two names, values or variable
+     * definitions
+     */
+    private static String join(List<String> tokens)
+    {
+        StringBuilder text = new StringBuilder();
+        String previous = null;
+        for (String token : tokens)
+        {
+            if (previous != null && endsValue(previous) && startsValue(token))
+            {
+                text.append(' ');
+            }
+            text.append(token);
+            previous = token;
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns the variables declared by the operation, before its selection set
+     */
+    private static List<String> declaredVariables(List<String> tokens)
+    {
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i + 2 < tokens.size() && !"{".equals(tokens.get(i)); i++)
+        {
+            if ("$".equals(tokens.get(i)) && ":".equals(tokens.get(i + 2)))
+            {
+                names.add(tokens.get(i + 1));
+            }
+        }
+        return names;
+    }
+
+    private static boolean endsValue(String token)
+    {
+        char c = token.charAt(token.length() - 1);
+        return isWordChar(c) || c == '"' || c == '!' || c == ']';
+    }
+
+    private static boolean startsValue(String token)
+    {
+        char c = token.charAt(0);
+        return isWordChar(c) || c == '"' || c == '$' || c == '.' || c == '-';
+    }
+
+    private static boolean isWordChar(char c)
+    {
+        return c == '_' || (c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    private static String sha256(String text)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+            {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
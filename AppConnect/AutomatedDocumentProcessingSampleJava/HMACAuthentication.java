@@ -19,12 +19,15 @@
  * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
  */
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
 
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 import javax.xml.bind.DatatypeConverter;
 
@@ -32,6 +35,38 @@ public class HMACAuthentication
 {
     private static final String HMAC_SHA1_ALGORITHM = "HmacSHA1";
 
+    /**
+     * Signing key for {@code Constants.HMAC_CREDENTIAL_SECRET}, computed once
+     */
+    private static final SecretKeySpec SIGNING_KEY = 
+            new SecretKeySpec(Constants.HMAC_CREDENTIAL_SECRET.getBytes(StandardCharsets.UTF_8), HMAC_SHA1_ALGORITHM);
+
+    /**
+     * Per-thread Mac initialized with the signing key and the buffers used to
+     * verify a request, so that verification does not allocate
+     */
+    private static final ThreadLocal<Verifier> VERIFIER = ThreadLocal.withInitial(Verifier::new);
+
+    private static final class Verifier
+    {
+        final Mac mac;
+        final byte[] computed;
+
+        Verifier()
+        {
+            try
+            {
+                mac = Mac.getInstance(HMAC_SHA1_ALGORITHM);
+                mac.init(SIGNING_KEY);
+            }
+            catch (NoSuchAlgorithmException | InvalidKeyException e)
+            {
+                throw new IllegalStateException("Unable to initialize " + HMAC_SHA1_ALGORITHM, e);
+            }
+            computed = new byte[mac.getMacLength()];
+        }
+    }
+
     /**
      * Verifies the External Event action call has a valid HMAC by comparing it
      * to an independently and dynamically generated HMAC. As long as the
@@ -49,6 +84,9 @@ public class HMACAuthentication
      * on the External Event action and the application match, the HMACs should
      * match.
      * 
+     * The HMAC is computed directly over the payload bytes with a per-thread
+     * Mac, and compared with the decoded header in constant time.
+     * 
      * @param hmacHeaderValue
      *            HMAC from External Event action call to validate
      * @param requestPayloadBytes
@@ -59,35 +97,84 @@ public class HMACAuthentication
      *         dynamically generated HMAC, or false if they do not match.
      */
     static public boolean verifyHMACHeader(String hmacHeaderValue, byte[] requestPayloadBytes)
+    {
+        if (requestPayloadBytes == null)
+        {
+            return verifyHMACHeader(hmacHeaderValue, (ByteBuffer) null);
+        }
+        return verifyHMACHeader(hmacHeaderValue, ByteBuffer.wrap(requestPayloadBytes));
+    }
+
+    /**
+     * Verifies the External Event action call has a valid HMAC, see
+     * {@link #verifyHMACHeader(String, byte[])}.
+     * 
+     * @param hmacHeaderValue
+     *            HMAC from External Event action call to validate
+     * @param requestPayload
+     *            The JSON payload from the External Event action call. The
+     *            remaining bytes of the buffer are used.
+     * @return true if the External Event action call HMAC matches the
+     *         dynamically generated HMAC, or false if they do not match.
+     */
+    static public boolean verifyHMACHeader(String hmacHeaderValue, ByteBuffer requestPayload)
     {
         String method = "HMACAuthentication.verifyHMACHeader: ";
         boolean verified = false;
-        String hmacComputed = null;
-        
-        String requestPayload = new String(requestPayloadBytes, StandardCharsets.UTF_8);
         
         try
         {
-            if (requestPayload != null)
+            Logger.debug(method, () -> "hmacHeaderValue = " + hmacHeaderValue);
+
+            if (hmacHeaderValue != null && requestPayload != null)
             {
-                hmacComputed = calculateHMAC(requestPayload, Constants.HMAC_CREDENTIAL_SECRET);
-            }
+                Verifier verifier = VERIFIER.get();
+                byte[] expected = DatatypeConverter.parseBase64Binary(hmacHeaderValue);
 
-            Logger.debug(method, "hmacHeaderValue = " + hmacHeaderValue);
-            Logger.debug(method, "hmacComputed =    " + hmacComputed);
-            
-            // Verify HMAC header value and computed HMAC are equal and not null
-            verified = ((hmacComputed != null) && (hmacHeaderValue != null) && hmacComputed.equals(hmacHeaderValue));
+                // Verify HMAC header value and computed HMAC are equal
+                if (expected.length == verifier.computed.length)
+                {
+                    verifier.mac.update(requestPayload);
+                    verifier.mac.doFinal(verifier.computed, 0);
+                    verified = MessageDigest.isEqual(expected, verifier.computed);
+                }
+            }
 
         } catch (Exception e) {
             Logger.error(method, "Exception thrown when attempting to validate HMAC", e);
         }
 
-        Logger.info(method, "HMAC Verified = " + verified);
+        boolean result = verified;
+        Logger.info(method, () -> "HMAC Verified = " + result);
         
         return verified;
     }
 
+    /**
+     * Calculates an HMAC for the given bytes with the
+     * {@code Constants.HMAC_CREDENTIAL_SECRET} key.
+     * 
+     * @param data
+     *            bytes to calculate an HMAC for
+     * @return HMAC for the given bytes, Base64 encoded
+     * @throws SignatureException
+     *             if the HMAC is unable to be generated
+     */
+    static String calculateHMAC(byte[] data) throws SignatureException
+    {
+        Verifier verifier = VERIFIER.get();
+        try
+        {
+            verifier.mac.update(data);
+            verifier.mac.doFinal(verifier.computed, 0);
+        }
+        catch (ShortBufferException e)
+        {
+            throw new SignatureException(e);
+        }
+        return toBase64(verifier.computed);
+    }
+
     /**
      * Calculates an HMAC for a given string and key.
      * 
@@ -106,10 +193,15 @@ public class HMACAuthentication
     static String calculateHMAC(String data, String key)
     									throws SignatureException, NoSuchAlgorithmException, InvalidKeyException
     {
-        SecretKeySpec signingKey = new SecretKeySpec(key.getBytes(),HMAC_SHA1_ALGORITHM);
+        if (Constants.HMAC_CREDENTIAL_SECRET.equals(key))
+        {
+            return calculateHMAC(data.getBytes(StandardCharsets.UTF_8));
+        }
+
+        SecretKeySpec signingKey = new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8),HMAC_SHA1_ALGORITHM);
         Mac mac = Mac.getInstance(HMAC_SHA1_ALGORITHM);
         mac.init(signingKey);
-        return toBase64(mac.doFinal(data.getBytes()));
+        return toBase64(mac.doFinal(data.getBytes(StandardCharsets.UTF_8)));
     }
 
     /**
@@ -0,0 +1,246 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContexts;
+
+/**
+ * Process-wide pooled HTTP client shared by {@link GraphQLAPIUtil} and
+ * {@link HttpDownloadUtil} for all calls to Content Services.
+ * 
+ * The client is created once with a {@code PoolingHttpClientConnectionManager}
+ * so that TLS sessions and keep-alive connections are reused across webhook
+ * events instead of being negotiated on every call. The pool limits and idle
+ * eviction are configured in {@code CSServerInfo.properties}.
+ * 
+ * The pool is started from {@code Finalization_JavaCompute.onSetup()} and shut
+ * down from {@code onStop}/{@code onTearDown}. Each node that starts the pool
+ * must release it once; the client is closed when the last node releases it.
+ * 
+ * This class will use the TLS 1.2 protocol for calls to Content Services. If a
+ * different protocol is required, the protocol can be changed in the code for
+ * this class.
+ */
+public class HttpClientPool
+{
+    private static final Object lock = new Object();
+
+    private static volatile CloseableHttpClient httpClient;
+    private static PoolingHttpClientConnectionManager connectionManager;
+    private static int references = 0;
+
+    /**
+     * Starts the shared client, creating it if this is the first reference.
+     */
+    public static void acquire()
+    {
+        synchronized (lock)
+        {
+            references++;
+            if (httpClient == null)
+            {
+                create();
+            }
+        }
+    }
+
+    /**
+     * Releases a reference taken by {@link #acquire()}. The client and all
+     * pooled connections are closed when the last reference is released.
+     */
+    public static void release()
+    {
+        String method = "HttpClientPool.release: ";
+
+        synchronized (lock)
+        {
+            if (references > 0)
+            {
+                references--;
+            }
+
+            if (references == 0 && httpClient != null)
+            {
+                try
+                {
+                    httpClient.close();
+                }
+                catch (IOException ioe)
+                {
+                    Logger.error(method, "Failure closing CloseableHttpClient: ", ioe);
+                }
+                httpClient = null;
+                connectionManager = null;
+
+                Logger.info(method, "Content Services HTTP connection pool shut down");
+            }
+        }
+    }
+
+    /**
+     * Returns the shared client. If the pool has not been started by the flow
+     * the client is created on first use.
+     * 
+     * @return the shared pooled HTTP client
+     */
+    public static CloseableHttpClient getClient()
+    {
+        CloseableHttpClient client = httpClient;
+        if (client != null)
+        {
+            return client;
+        }
+
+        synchronized (lock)
+        {
+            if (httpClient == null)
+            {
+                create();
+            }
+            return httpClient;
+        }
+    }
+
+    /**
+     * Creates a request context with its own cookie store, so that cookies set
+     * for one call are not sent on calls made by other flow threads.
+     * 
+     * @return a new HttpClientContext for a single request
+     */
+    public static HttpClientContext newContext()
+    {
+        HttpClientContext context = HttpClientContext.create();
+        context.setCookieStore(new BasicCookieStore());
+        return context;
+    }
+
+    /**
+     * Returns a description of the pool usage, for logging.
+     */
+    public static String getPoolStats()
+    {
+        PoolingHttpClientConnectionManager cm = connectionManager;
+        return (cm != null) ? cm.getTotalStats().toString() : "[not started]";
+    }
+
+    private static void create()
+    {
+        String method = "HttpClientPool.create: ";
+
+        int maxTotal = CSServerInfo.getInt("CS_HTTP_MAX_TOTAL", 50);
+        int maxPerRoute = CSServerInfo.getInt("CS_HTTP_MAX_PER_ROUTE", 20);
+        final long keepAliveMs = CSServerInfo.getLong("CS_HTTP_KEEP_ALIVE_MS", 30000);
+        long idleEvictMs = CSServerInfo.getLong("CS_HTTP_IDLE_EVICT_MS", 60000);
+        int validateAfterMs = CSServerInfo.getInt("CS_HTTP_VALIDATE_AFTER_MS", 2000);
+        int connectTimeoutMs = CSServerInfo.getInt("CS_HTTP_CONNECT_TIMEOUT_MS", 5000);
+        int socketTimeoutMs = CSServerInfo.getInt("CS_HTTP_SOCKET_TIMEOUT_MS", 30000);
+        int connectionRequestTimeoutMs = CSServerInfo.getInt("CS_HTTP_CONNECTION_REQUEST_TIMEOUT_MS", 5000);
+
+        try
+        {
+            /*
+             * Have the pool use TLSv1.2. If you do not wish to force TLSv1.2 to
+             * be used, you can change the protocol here.
+             */
+            SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(new TrustSelfSignedStrategy()).build();
+
+            SSLConnectionSocketFactory sslConnectionSocketFactory =
+                    new SSLConnectionSocketFactory(
+                    sslContext,
+                    new String[] {"TLSv1.2"},
+                    null,
+                    SSLConnectionSocketFactory.getDefaultHostnameVerifier());
+
+            Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", sslConnectionSocketFactory)
+                    .build();
+
+            PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(registry);
+            cm.setMaxTotal(maxTotal);
+            cm.setDefaultMaxPerRoute(maxPerRoute);
+            cm.setValidateAfterInactivity(validateAfterMs);
+
+            // Use the server keep-alive header if present, otherwise the configured default
+            ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+                long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return (serverKeepAlive > 0) ? serverKeepAlive : keepAliveMs;
+            };
+
+            // Bound the time a flow thread can wait on a slow or unreachable server
+            RequestConfig requestConfig = RequestConfig.custom()
+                    .setConnectTimeout(connectTimeoutMs)
+                    .setSocketTimeout(socketTimeoutMs)
+                    .setConnectionRequestTimeout(connectionRequestTimeoutMs)
+                    .build();
+
+            /*
+             * Connection state tracking is disabled so that connections are
+             * shared between calls made with different bearer tokens; requests
+             * are authenticated by header, not by the connection.
+             * 
+             * Automatic retries are disabled; ContentServicesCall retries
+             * idempotent calls with backoff.
+             * 
+             * Content compression is disabled; ContentEncoding asks for and
+             * decodes compressed responses itself, and counts their bytes.
+             */
+            httpClient = HttpClientBuilder.create()
+                    .setConnectionManager(cm)
+                    .setDefaultRequestConfig(requestConfig)
+                    .setKeepAliveStrategy(keepAliveStrategy)
+                    .disableConnectionState()
+                    .disableAutomaticRetries()
+                    .disableContentCompression()
+                    .evictExpiredConnections()
+                    .evictIdleConnections(idleEvictMs, TimeUnit.MILLISECONDS)
+                    .build();
+            connectionManager = cm;
+
+            Logger.info(method, "Content Services HTTP connection pool started, maxTotal: " + maxTotal + 
+                                ", maxPerRoute: " + maxPerRoute + ", connectTimeout: " + connectTimeoutMs + 
+                                ", socketTimeout: " + socketTimeoutMs);
+        }
+        catch (Exception e)
+        {
+            Logger.error(method, "Failure creating pooled CloseableHttpClient: ", e);
+            throw new RuntimeException("Failure creating pooled CloseableHttpClient", e);
+        }
+    }
+}
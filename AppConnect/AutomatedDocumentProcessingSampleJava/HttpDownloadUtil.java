@@ -19,28 +19,30 @@
  * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
  */
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
 
 // Basic authentication
 //import java.util.Base64;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
-import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
-
-import javax.net.ssl.SSLContext;
-
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 /**
  * Utility class to handle HttpGet of annotation content from the CPE
@@ -48,7 +50,19 @@ import org.json.JSONObject;
 public class HttpDownloadUtil 
 {
     /**
-     * Use Retrieve the Annotation content
+     * Use the javax.json streaming parser to extract the first KVPTable and
+     * stop reading, instead of building a tree for the whole annotation
+     */
+    private static final boolean STREAMING = CSServerInfo.getBoolean("CS_DOWNLOAD_STREAMING", true);
+
+    /**
+     * Rest of a streamed annotation that is read to keep the connection; a
+     * longer rest is discarded with the connection
+     */
+    private static final long DRAIN_MAX_BYTES = CSServerInfo.getLong("CS_DOWNLOAD_DRAIN_MAX_BYTES", 262144);
+
+    /**
+     * Use Retrieve the Annotation content, returning the KVPTable of its first page
      *
      * @param repositoryId
      *            repository Id from where to retrieve the Annotation
@@ -61,13 +75,78 @@ public class HttpDownloadUtil
      * @throws Exception 
      */
     public static JSONArray getAnnotationContent(String repositoryId, String annotationId, Integer elemSeqNbr) throws Exception
+    {
+        return getAnnotationContent(repositoryId, annotationId, elemSeqNbr, false);
+    }
+
+    /**
+     * Use Retrieve the Annotation content
+     *
+     * @param repositoryId
+     *            repository Id from where to retrieve the Annotation
+     * @param annotationId
+     *            annotation Id of the Annotation to retrieve
+     * @param elemSeqNbr
+     *            element sequence number of the Annotation
+     * @param allPages
+     *            merge the KVPTables of all pages, in page order, instead of
+     *            returning the KVPTable of the first page
+     *            
+     * @return The Annotation KVPTable as a JSONArray
+     * @throws Exception 
+     */
+    public static JSONArray getAnnotationContent(String repositoryId, String annotationId, Integer elemSeqNbr, boolean allPages) throws Exception
     {
         String method = "HttpDownloadUtil.getAnnotationContent: ";
-        Logger.debug(method, "repositoryId: " + repositoryId + ", annotationId: " + annotationId + ", elemSeqNbr: " + elemSeqNbr.toString());
+        Logger.debug(method, () -> "repositoryId: " + repositoryId + ", annotationId: " + annotationId + ", elemSeqNbr: " + elemSeqNbr.toString());
 
-        HttpResponse httpResponse = null;
-        CloseableHttpClient httpClient = null;
-        BufferedReader breader = null;
+        long start = StageMetrics.start();
+        try
+        {
+            // Annotation content does not change once written; reuse a table already parsed
+            String cacheKey = null;
+            if ( AnnotationContentCache.isEnabled() )
+            {
+                cacheKey = AnnotationContentCache.keyOf(repositoryId, annotationId, elemSeqNbr) + (allPages ? "|all" : "");
+                JSONArray cached = AnnotationContentCache.get(cacheKey);
+                if ( cached != null )
+                {
+                    Logger.debug(method, () -> "KVPTable from cache, " + AnnotationContentCache.getStats());
+                    return cached;
+                }
+            }
+
+            // Download through the download circuit breaker, retrying failures
+            JSONArray jsonKVPTable = ContentServicesCall.call(ContentServicesCall.DOWNLOAD, true, 
+                                                              () -> download(repositoryId, annotationId, elemSeqNbr, allPages));
+
+            if ( (jsonKVPTable != null) && (cacheKey != null) )
+            {
+                AnnotationContentCache.put(cacheKey, jsonKVPTable);
+            }
+
+            return jsonKVPTable;
+        }
+        finally
+        {
+            StageMetrics.record(StageMetrics.Stage.DOWNLOAD, start);
+        }
+    }
+
+    /**
+     * Downloads the Annotation content
+     * 
+     * @return The Annotation KVPTable as a JSONArray, or null if the
+     *         annotation has no KVPTable
+     * @throws ContentServicesException
+     *             for a response other than 200; server error and throttling
+     *             responses may be retried
+     */
+    private static JSONArray download(String repositoryId, String annotationId, Integer elemSeqNbr, boolean allPages) throws Exception
+    {
+        String method = "HttpDownloadUtil.download: ";
+
+        CloseableHttpResponse httpResponse = null;
         JSONArray jsonKVPTable = null;
 
         try
@@ -78,16 +157,8 @@ public class HttpDownloadUtil
             //String csServerUsername = CSServerInfo.CS_SERVER_USERNAME;
             //String csServerPassword = CSServerInfo.CS_SERVER_PASSWORD;
 
-            SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(new TrustSelfSignedStrategy()).build();
-
-            SSLConnectionSocketFactory sslConnectionSocketFactory =
-                    new SSLConnectionSocketFactory(
-                    sslContext,
-                    new String[] {"TLSv1.2"},
-                    null,
-                    SSLConnectionSocketFactory.getDefaultHostnameVerifier());
-
-            httpClient = HttpClientBuilder.create().setSSLSocketFactory(sslConnectionSocketFactory).build();
+            // Use the shared pooled client
+            CloseableHttpClient httpClient = HttpClientPool.getClient();
 
             // Basic authentication
             //String credentials = csServerUsername + ":" + csServerPassword;
@@ -98,20 +169,19 @@ public class HttpDownloadUtil
             // UMS authentication
             try
             {
-                // Use a CPEClientAccount to get the bearer token
-                bearerToken = CPEClientAccount.getInstance().getBearerToken();
+                // Use the cached CPEClientAccount bearer token
+                bearerToken = BearerTokenManager.getBearerToken(false);
 
                 if ( (bearerToken == null) || (bearerToken.length() == 0) )
                 {
-                    Logger.error(method, "Failed to retrieve valid bearerToken", null);
-                    return null;
+                    String msg = "Failed to retrieve valid bearerToken";
+                    Logger.error(method, msg, null);
+                    throw new RuntimeException(msg);
                 }
-
-                Logger.debug(method, "bearerToken: " + bearerToken); 
             }
             catch(Exception e)
             {
-                Logger.error(method, "Exception getting UMS bearerToken from CAServiceAccount: ", e);
+                Logger.error(method, "Exception getting UMS bearerToken: ", e);
                 throw e;
 //                return null;
             }
@@ -130,76 +200,45 @@ public class HttpDownloadUtil
 
             // Set UMS authentication bearerToken
             httpGet.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + bearerToken);
+            ContentEncoding.accept(httpGet);
 
             // Pull down the annotation JSON content
-            httpResponse = httpClient.execute(httpGet);
+            httpResponse = httpClient.execute(httpGet, HttpClientPool.newContext());
 
             // Get the request status
             StatusLine statusLine = httpResponse.getStatusLine();
             
-            Logger.info(method, "statusLine = " + statusLine.toString());
+            Logger.info(method, () -> "statusLine = " + statusLine.toString());
 
             // Status ok
             if ( statusLine.getStatusCode() == 200 )
             {
-                String jsonTgt = null;
+                // Decompressed as it is parsed
+                InputStream content = ContentEncoding.decode(httpResponse.getEntity());
 
-                // Retrieve the response and navigate to the KVPTable JSONObject
-                try
+                if ( STREAMING )
                 {
-                    // Get response string
-                    breader = new BufferedReader(new InputStreamReader(httpResponse.getEntity().getContent()));
-
-                    StringBuilder responseString = new StringBuilder();
-                    String line = "";
-
-                    while ((line = breader.readLine()) != null)
-                    {
-                        responseString.append(line);
-                    }
-
-//                    Logger.info(method, "responseString = " + responseString.toString());
-
-                    JSONObject jsonResponse = new JSONObject(responseString.toString());
-
-                    jsonTgt = "result";
-                    JSONArray jsonResults = jsonResponse.getJSONArray(jsonTgt);
-
-                    JSONObject jsonData = null;
-
-                    for(Object item: jsonResults) 
-                    {
-                        jsonTgt = "data";
-                        jsonData = ((JSONObject)item).getJSONObject(jsonTgt);
-
-                        if ( jsonData != null )
-                            break;
-                    }
-
-                    if ( jsonData == null ) {
-                        return jsonKVPTable;
-                    }
-
-                    jsonTgt = "pageList";
-                    JSONArray jsonPageList = jsonData.getJSONArray(jsonTgt);
+                    jsonKVPTable = readKVPTableStreaming(content, allPages);
 
-                    for(Object item: jsonPageList) 
+                    if ( (jsonKVPTable != null) && !allPages && !drain(httpResponse.getEntity(), DRAIN_MAX_BYTES) )
                     {
-                        jsonData = (JSONObject)item;
-
-                        jsonTgt = "KVPTable";
-                        jsonKVPTable = (JSONArray)jsonData.get(jsonTgt);
-
-                        if ( jsonKVPTable != null )
-                            break;
+                        // Stop reading; a large rest of the annotation is discarded with the connection instead of being drained
+                        httpGet.abort();
                     }
                 }
-                catch(Exception e)
+                else
                 {
-                    Logger.error(method, "failed to retreive JSON: " + jsonTgt, e);
-                    throw e;
+                    jsonKVPTable = readKVPTable(content, allPages);
                 }
             }
+            else
+            {
+                // Consume the error body so the connection can be returned to the pool
+                EntityUtils.consumeQuietly(httpResponse.getEntity());
+
+                // A failed download is not an annotation without a KVPTable
+                throw new ContentServicesException(statusLine.getStatusCode(), "Download response code: " + statusLine.toString());
+            }
         } 
         catch (Exception ex)
         {
@@ -208,33 +247,357 @@ public class HttpDownloadUtil
         }
         finally
         {
-            // Close the Buffered Reader
+            // Release the HTTP connection back to the pool
             try
             {
-                if (breader != null)
+                if (httpResponse != null)
                 {
-                    breader.close();
+                    httpResponse.close();
                 }
             }
-            catch (IOException e)
+            catch (IOException ioe)
             {
-                Logger.error(method, "IOException", e);
+                Logger.error(method, "IOException", ioe);
             }
+        }
 
-            // Close the HTTP connection
-            try
+        return jsonKVPTable;
+    }
+
+    /**
+     * Parses the whole annotation content into a JSONObject and navigates to
+     * the first KVPTable in {@code result[].data.pageList[]}, or merges the
+     * KVPTables of all pages.
+     *
+     * @param content
+     *            annotation content stream, closed by this method
+     * @param allPages
+     *            merge the KVPTables of all pages, in page order
+     *            
+     * @return The Annotation KVPTable as a JSONArray
+     * @throws Exception 
+     */
+    static JSONArray readKVPTable(InputStream content, boolean allPages) throws Exception
+    {
+        String method = "HttpDownloadUtil.readKVPTable: ";
+
+        JSONArray jsonKVPTable = null;
+        String jsonTgt = null;
+
+        // Retrieve the response and navigate to the KVPTable JSONObject
+        try (Reader reader = new InputStreamReader(content, StandardCharsets.UTF_8))
+        {
+            JSONObject jsonResponse = new JSONObject(new JSONTokener(reader));
+
+            jsonTgt = "result";
+            JSONArray jsonResults = jsonResponse.getJSONArray(jsonTgt);
+
+            if ( allPages )
             {
-                if (httpClient != null)
+                // Merge the KVPTables of every page, in page order
+                for(Object item: jsonResults) 
                 {
-                    httpClient.close();
+                    jsonTgt = "data";
+                    JSONObject jsonData = ((JSONObject)item).getJSONObject(jsonTgt);
+
+                    jsonTgt = "pageList";
+                    for(Object page: jsonData.getJSONArray(jsonTgt)) 
+                    {
+                        jsonTgt = "KVPTable";
+                        jsonKVPTable = appendKVPTable(jsonKVPTable, ((JSONObject)page).optJSONArray(jsonTgt));
+                    }
                 }
+                return jsonKVPTable;
             }
-            catch (IOException ioe)
+
+            JSONObject jsonData = null;
+
+            for(Object item: jsonResults) 
             {
-                Logger.error(method, "IOException", ioe);
+                jsonTgt = "data";
+                jsonData = ((JSONObject)item).getJSONObject(jsonTgt);
+
+                if ( jsonData != null )
+                    break;
+            }
+
+            if ( jsonData == null ) {
+                return jsonKVPTable;
+            }
+
+            jsonTgt = "pageList";
+            JSONArray jsonPageList = jsonData.getJSONArray(jsonTgt);
+
+            for(Object item: jsonPageList) 
+            {
+                jsonData = (JSONObject)item;
+
+                jsonTgt = "KVPTable";
+                jsonKVPTable = (JSONArray)jsonData.get(jsonTgt);
+
+                if ( jsonKVPTable != null )
+                    break;
+            }
+        }
+        catch(Exception e)
+        {
+            Logger.error(method, "failed to retreive JSON: " + jsonTgt, e);
+            throw e;
+        }
+
+        return jsonKVPTable;
+    }
+
+    /**
+     * Streams the annotation content and returns the first KVPTable in
+     * {@code result[].data.pageList[]}, or merges the KVPTables of all pages.
+     * Only the KVPTable arrays are materialized; other values are skipped
+     * without being built.
+     * 
+     * For the first KVPTable the stream is left unread after the KVPTable when
+     * one is found; the caller drains a short rest of the response, or aborts
+     * the request rather than close the stream, which would drain all of it.
+     * Otherwise the stream is read to the end and closed.
+     *
+     * @param content
+     *            annotation content stream
+     * @param allPages
+     *            merge the KVPTables of all pages, in page order
+     *            
+     * @return The Annotation KVPTable as a JSONArray, or null if not found
+     * @throws Exception 
+     */
+    static JSONArray readKVPTableStreaming(InputStream content, boolean allPages) throws Exception
+    {
+        String method = "HttpDownloadUtil.readKVPTableStreaming: ";
+
+        JsonParser parser = Json.createParser(content);
+        String jsonTgt = "result";
+        JSONArray jsonKVPTable = null;
+
+        try
+        {
+            if ( parser.hasNext() && parser.next() == Event.START_OBJECT && nextValueForKey(parser, jsonTgt) == Event.START_ARRAY )
+            {
+                // result[]
+                while ( parser.hasNext() )
+                {
+                    Event event = parser.next();
+                    if ( event == Event.END_ARRAY )
+                        break;
+
+                    if ( event != Event.START_OBJECT )
+                    {
+                        skipValue(parser, event);
+                        continue;
+                    }
+
+                    jsonTgt = "data";
+                    Event data = nextValueForKey(parser, jsonTgt);
+                    if ( data == null )
+                        continue;
+
+                    if ( data != Event.START_OBJECT )
+                    {
+                        skipValue(parser, data);
+                        parser.skipObject();
+                        continue;
+                    }
+
+                    jsonTgt = "pageList";
+                    Event pageList = nextValueForKey(parser, jsonTgt);
+                    if ( pageList == Event.START_ARRAY )
+                    {
+                        // pageList[]
+                        while ( parser.hasNext() )
+                        {
+                            event = parser.next();
+                            if ( event == Event.END_ARRAY )
+                                break;
+
+                            if ( event != Event.START_OBJECT )
+                            {
+                                skipValue(parser, event);
+                                continue;
+                            }
+
+                            jsonTgt = "KVPTable";
+                            Event kvpTable = nextValueForKey(parser, jsonTgt);
+                            if ( kvpTable == Event.START_ARRAY )
+                            {
+                                // Materialize only the KVPTable, directly as org.json values
+                                JSONArray pageKVPTable = (JSONArray) readValue(parser, kvpTable);
+                                if ( !allPages )
+                                {
+                                    // Stop reading
+                                    return pageKVPTable;
+                                }
+
+                                jsonKVPTable = appendKVPTable(jsonKVPTable, pageKVPTable);
+                                parser.skipObject();
+                            }
+                            else if ( kvpTable != null )
+                            {
+                                skipValue(parser, kvpTable);
+                                parser.skipObject();
+                            }
+                        }
+                    }
+                    else if ( pageList != null )
+                    {
+                        skipValue(parser, pageList);
+                    }
+
+                    // Skip the rest of data, then the rest of the result entry
+                    if ( pageList != null )
+                        parser.skipObject();
+                    parser.skipObject();
+                }
             }
         }
+        catch(Exception e)
+        {
+            Logger.error(method, "failed to retreive JSON: " + jsonTgt, e);
+            parser.close();
+            throw e;
+        }
 
+        // All pages, or no KVPTable; the content has been read to the end
+        parser.close();
         return jsonKVPTable;
     }
+
+    /**
+     * Reads the rest of a response, without decoding it, so that the
+     * connection is returned to the pool
+     * 
+     * @return true if the end of the response was reached within maxBytes
+     */
+    private static boolean drain(HttpEntity entity, long maxBytes)
+    {
+        String method = "HttpDownloadUtil.drain: ";
+
+        byte[] buffer = new byte[8192];
+        long remaining = maxBytes;
+        try
+        {
+            InputStream rest = entity.getContent();
+            while ( remaining >= 0 )
+            {
+                int n = rest.read(buffer, 0, (int) Math.min(buffer.length, remaining + 1));
+                if ( n < 0 )
+                    return true;
+                remaining -= n;
+            }
+        }
+        catch (IOException e)
+        {
+            Logger.debug(method, () -> "IOException draining the response: " + e);
+        }
+        return false;
+    }
+
+    /**
+     * Appends the entries of a page KVPTable to the merged KVPTable
+     * 
+     * @return The merged KVPTable, created on the first page with a KVPTable
+     */
+    private static JSONArray appendKVPTable(JSONArray jsonKVPTable, JSONArray pageKVPTable)
+    {
+        if ( pageKVPTable == null )
+        {
+            return jsonKVPTable;
+        }
+        if ( jsonKVPTable == null )
+        {
+            return pageKVPTable;
+        }
+
+        for(Object kvp: pageKVPTable)
+        {
+            jsonKVPTable.put(kvp);
+        }
+        return jsonKVPTable;
+    }
+
+    /**
+     * Advances the parser within the current object to the value of the given
+     * key, skipping the values of other keys.
+     * 
+     * @return the first event of the value, or null if the key was not found
+     *         and the parser is positioned after the end of the object
+     */
+    private static Event nextValueForKey(JsonParser parser, String key)
+    {
+        while ( parser.hasNext() )
+        {
+            Event event = parser.next();
+            if ( event == Event.END_OBJECT )
+                return null;
+
+            if ( event == Event.KEY_NAME )
+            {
+                boolean found = key.equals(parser.getString());
+                Event value = parser.next();
+                if ( found )
+                    return value;
+
+                skipValue(parser, value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Skips a value whose first event has already been read.
+     */
+    private static void skipValue(JsonParser parser, Event event)
+    {
+        if ( event == Event.START_OBJECT )
+            parser.skipObject();
+        else if ( event == Event.START_ARRAY )
+            parser.skipArray();
+    }
+
+    /**
+     * Builds the org.json value whose first event has already been read,
+     * reading the rest of it from the parser.
+     */
+    private static Object readValue(JsonParser parser, Event event)
+    {
+        switch (event)
+        {
+            case START_OBJECT:
+                JSONObject jsonObject = new JSONObject();
+                while ( parser.next() == Event.KEY_NAME )
+                {
+                    String key = parser.getString();
+                    jsonObject.put(key, readValue(parser, parser.next()));
+                }
+                return jsonObject;
+
+            case START_ARRAY:
+                JSONArray jsonArray = new JSONArray();
+                for (Event item = parser.next(); item != Event.END_ARRAY; item = parser.next())
+                {
+                    jsonArray.put(readValue(parser, item));
+                }
+                return jsonArray;
+
+            case VALUE_STRING:
+                return parser.getString();
+
+            case VALUE_NUMBER:
+                return parser.isIntegralNumber() ? (Object) parser.getLong() : (Object) parser.getBigDecimal().doubleValue();
+
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+
+            default:
+                return JSONObject.NULL;
+        }
+    }
 }
@@ -19,19 +19,29 @@
  * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
  */
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 
-import com.ibm.json.java.JSONArray;
-import com.ibm.json.java.JSONObject;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
 
 import com.ibm.broker.plugin.MbException;
 import com.ibm.broker.plugin.MbMessage;
 import com.ibm.broker.plugin.MbElement;
 
+/**
+ * Webhook event fields read from the {@code JSON/Data} element of the request.
+ * 
+ * {@link #processBody()} reads the required fields in a single pass over the
+ * direct children of {@code JSON/Data}; nested elements are not visited.
+ * {@link #processBitstream(byte[])} reads the same fields directly from the
+ * request body when it has not been parsed by the flow.
+ */
 public class JSONData {
 
 	public MbMessage inMessage;
-	public String hmacJsonStr = "";
 
 	public String receiverRegistrationId;
 	public String eventDateTime;
@@ -50,171 +60,156 @@ public class JSONData {
 	{
 		String method = "JSONData.processBody: ";
 		
-		MbElement element = inMessage.getRootElement().getFirstElementByPath("JSON/Data");
+		MbElement element = getDataElement();
 		
 		/*
-		 * Iterate through the Data element tree
+		 * Retrieve JSON payload variables from the top level of the Data element
 		 */
-		JSONObject jsonObject = new JSONObject();
-		JSONObject jsonChild = new JSONObject();
-		jsonObject.put(element.getName(), jsonChild);
-
-		processChildren(element, jsonChild, 0);
-
-		/*
-		 * Print resulting JSON - These can be large
-		 */
-		Logger.debug(method, "Body Json = " + jsonObject.serialize(true).toString().substring(0, 500));
-
-//		Logger.debug(method, "hmacJsonStr = " + hmacJsonStr);
-		
-		
-		// Retrieve JSON payload variables
-		JSONObject jsonData = (JSONObject) jsonObject.get("Data");
-
-		receiverRegistrationId = (String) jsonData.get("receiverRegistrationId");
-		eventDateTime = (String) jsonData.get("eventDateTime");
-		objectStoreId = (String) jsonData.get("objectStoreId");
-		sourceObjectId = (String) jsonData.get("sourceObjectId");
-		eventType = (String) jsonData.get("eventType");
-		subscriptionId = (String) jsonData.get("subscriptionId");
-		initiatingUser = (String) jsonData.get("initiatingUser");
-
-		Logger.info(method, "receiverRegistrationId = " + receiverRegistrationId);
-		Logger.info(method, "eventDateTime = " + eventDateTime);
-		Logger.info(method, "objectStoreId = " + objectStoreId);
-		Logger.info(method, "sourceObjectId = " + sourceObjectId);
-		Logger.info(method, "eventType = " + eventType);
-		Logger.info(method, "subscriptionId = " + subscriptionId);
-		Logger.info(method, "initiatingUser = " + initiatingUser);
-	}
-	
-	private void processChildren(MbElement element, JSONObject jsonChild, int depth) throws MbException
-	{
-		if (element == null) {
-			return;
-		}
-
-		int newDepth = depth + 1;
-
 		try
 		{
-			MbElement child = element.getFirstChild();
-			if (child == null) {
-				return;
-			}
-
-			hmacJsonStr += "{";
+			MbElement child = (element != null) ? element.getFirstChild() : null;
 
-			while(child != null)
+			while (child != null)
 			{
-				MbElement newChild = child.getFirstChild();
-				
-				buildJsonForHmac(child, newDepth, newChild, false);
-				
-				if (newChild != null)
-				{
-					if (newChild.getName().equals("Item"))
-					{
-						JSONArray jsonArray = new JSONArray();
-						jsonChild.put(child.getName(), jsonArray);
-						processItemArray(child, jsonArray, newDepth);
-					}
-					else
-					{
-						JSONObject jsonNewChild = new JSONObject();
-						jsonChild.put(child.getName(), jsonNewChild);
-						processChildren(child, jsonNewChild, newDepth);
-					}
-				}
-				else
-				{
-					jsonChild.put(child.getName(), child.getValueAsString());
-				}
-				
+				setField(child.getName(), child);
 				child = child.getNextSibling();
-				
-				if (child != null) {
-					hmacJsonStr += ",";
-				}
 			}
-			
-			hmacJsonStr += "}";
-
 		} catch (MbException e) {
-			Logger.error("JSONData.processChildren: ", "Parsing failure", e);
+			Logger.error("JSONData.processBody: ", "Parsing failure", e);
 			throw e;
 		}
+
+		logFields(method);
 	}
 
-	private void processItemArray(MbElement element, JSONArray jsonArrayChild, int depth) throws MbException
+	/**
+	 * Reads the required fields from the top level of the request body
+	 * bitstream with a streaming parser, without building a message tree.
+	 * Nested objects and arrays are skipped.
+	 * 
+	 * @param body
+	 *            the JSON request body
+	 */
+	public void processBitstream(byte[] body)
 	{
-		try
-		{
-			MbElement child = element.getFirstChild();
-			if (child == null) {
-				return;
-			}
-			
-			hmacJsonStr += "[";
+		String method = "JSONData.processBitstream: ";
 
-			while(child != null)
+		try (JsonParser parser = Json.createParser(new ByteArrayInputStream(body)))
+		{
+			if (parser.hasNext() && parser.next() == Event.START_OBJECT)
 			{
-				MbElement newChild = child.getFirstChild();
+				while (parser.hasNext())
+				{
+					Event event = parser.next();
+					if (event == Event.END_OBJECT) {
+						break;
+					}
 
-				buildJsonForHmac(child, depth, newChild, true);
+					String name = parser.getString();
+					event = parser.next();
 
-				if (newChild != null)
-				{
-					JSONObject jsonNewChild = new JSONObject();
-					jsonArrayChild.add(jsonNewChild);
-					processChildren(child, jsonNewChild, depth);
-				}
-				else
-				{
-					JSONObject jsonObj = new JSONObject();
-					jsonObj.put(child.getName(), child.getValueAsString());
-					jsonArrayChild.add(jsonObj);
-				}
-				
-				child = child.getNextSibling();
-				
-				if (child != null) {
-					hmacJsonStr += ",";
+					if (event == Event.VALUE_STRING) {
+						setField(name, parser.getString());
+					}
+					else if (event == Event.START_OBJECT) {
+						parser.skipObject();
+					}
+					else if (event == Event.START_ARRAY) {
+						parser.skipArray();
+					}
 				}
 			}
-			
-			hmacJsonStr += "]";
-			
-		} catch (MbException e) {
-			Logger.error("JSONData.processItemArray: ", "Parsing failure", e);
+		} catch (JsonException e) {
+			Logger.error(method, "Parsing failure", e);
 			throw e;
 		}
+
+		logFields(method);
+	}
+
+	/**
+	 * Returns the event fields in a fixed order, for the event spool
+	 */
+	public String[] getFields()
+	{
+		return new String[] { receiverRegistrationId, eventDateTime, objectStoreId, sourceObjectId,
+				eventType, subscriptionId, initiatingUser };
 	}
 
-	/*
-	 * Build Json for HMAC confirmation
+	/**
+	 * Sets the event fields from the values returned by {@link #getFields()}
 	 */
-	private void buildJsonForHmac(MbElement child, int depth, MbElement newChild, boolean isArray) throws MbException
+	public void setFields(String[] fields)
 	{
-		if (!isArray) {
-			hmacJsonStr += "\"" + child.getName() + "\":";
+		String[] names = { "receiverRegistrationId", "eventDateTime", "objectStoreId", "sourceObjectId",
+				"eventType", "subscriptionId", "initiatingUser" };
+		for (int i = 0; i < names.length && i < fields.length; i++)
+		{
+			setField(names[i], fields[i]);
 		}
-		
-		if (newChild == null) {
-			String value = child.getValueAsString();
-	        value = value.replace("/", "\\/");
-			hmacJsonStr += "\"" + value  + "\"";
+	}
+
+	private void setField(String name, MbElement element) throws MbException
+	{
+		switch (name)
+		{
+			case "receiverRegistrationId":
+			case "eventDateTime":
+			case "objectStoreId":
+			case "sourceObjectId":
+			case "eventType":
+			case "subscriptionId":
+			case "initiatingUser":
+				setField(name, element.getValueAsString());
+				break;
+			default:
+				break;
 		}
-		
-		// Optional printout
-/*		String pad = "   ";
-		String spaces = "";
-		
-		for (int i = 0; i < depth; i++) {
-			spaces+= pad;
+	}
+
+	private void setField(String name, String value)
+	{
+		switch (name)
+		{
+			case "receiverRegistrationId":
+				receiverRegistrationId = value;
+				break;
+			case "eventDateTime":
+				eventDateTime = value;
+				break;
+			case "objectStoreId":
+				objectStoreId = value;
+				break;
+			case "sourceObjectId":
+				sourceObjectId = value;
+				break;
+			case "eventType":
+				eventType = value;
+				break;
+			case "subscriptionId":
+				subscriptionId = value;
+				break;
+			case "initiatingUser":
+				initiatingUser = value;
+				break;
+			default:
+				break;
 		}
-		
-		Logger.debug("", spaces + child.getName() + ":  " + child.getValueAsString());*/
+	}
+
+	private void logFields(String method)
+	{
+		Logger.info(method, () -> "receiverRegistrationId = " + receiverRegistrationId +
+				", eventDateTime = " + eventDateTime +
+				", objectStoreId = " + objectStoreId +
+				", sourceObjectId = " + sourceObjectId +
+				", eventType = " + eventType +
+				", subscriptionId = " + subscriptionId +
+				", initiatingUser = " + initiatingUser);
+	}
+
+	private MbElement getDataElement() throws MbException
+	{
+		return inMessage.getRootElement().getFirstElementByPath("JSON/Data");
 	}
 }
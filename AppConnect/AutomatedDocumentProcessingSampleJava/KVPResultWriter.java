@@ -0,0 +1,411 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Single-writer appender for the finalized document list in
+ * {@code Constants.FINALIZE_DOC_LIST}.
+ * 
+ * Flow threads format their KVPTable results and enqueue the record with
+ * {@link #submit(String)}; they do not touch the file. A background thread
+ * keeps the file channel open and writes all queued records in one batch
+ * followed by one sync (group commit). A batch is written when it reaches
+ * {@code KVP_WRITER_MAX_BATCH} records or when its first record has waited
+ * {@code KVP_WRITER_MAX_LATENCY_MS}, whichever comes first.
+ * 
+ * The queue is bounded. When it is full {@link #submit(String)} returns false
+ * so that the caller can report backpressure instead of blocking the flow. It
+ * also returns false once the last reference is released; records are only
+ * taken while the writer is acquired.
+ * 
+ * {@link #submit(String, Runnable)} also takes a callback that the writer
+ * thread runs once the record has been written, and synced when
+ * {@code KVP_WRITER_SYNC} is set.
+ */
+public class KVPResultWriter
+{
+    private static final int QUEUE_CAPACITY = CSServerInfo.getInt("KVP_WRITER_QUEUE_CAPACITY", 10000);
+    private static final int MAX_BATCH = CSServerInfo.getInt("KVP_WRITER_MAX_BATCH", 256);
+    private static final long MAX_LATENCY_MS = CSServerInfo.getLong("KVP_WRITER_MAX_LATENCY_MS", 10);
+    private static final long OFFER_TIMEOUT_MS = CSServerInfo.getLong("KVP_WRITER_OFFER_TIMEOUT_MS", 100);
+    private static final boolean SYNC = CSServerInfo.getBoolean("KVP_WRITER_SYNC", true);
+
+    /**
+     * Queued record, with the callback to run once it is written
+     */
+    private static final class Record
+    {
+        final String text;
+        final Runnable onWritten;
+
+        Record(String text, Runnable onWritten)
+        {
+            this.text = text;
+            this.onWritten = onWritten;
+        }
+    }
+
+    private static final ArrayBlockingQueue<Record> queue = new ArrayBlockingQueue<Record>(QUEUE_CAPACITY);
+
+    private static final AtomicLong written = new AtomicLong();
+    private static final AtomicLong batches = new AtomicLong();
+    private static final AtomicLong rejected = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+
+    private static final Object lock = new Object();
+    private static volatile Writer writer;
+    private static Thread stopping;
+    private static int references = 0;
+
+    /**
+     * Writer thread, with its own stop flag so that a writer started after a
+     * release does not keep the previous one running
+     */
+    private static final class Writer implements Runnable
+    {
+        final Thread thread = new Thread(this, "KVPResultWriter");
+        volatile boolean running = true;
+
+        @Override
+        public void run()
+        {
+            KVPResultWriter.run(this);
+        }
+    }
+
+    /**
+     * Starts the writer thread if this is the first reference.
+     */
+    public static void acquire()
+    {
+        synchronized (lock)
+        {
+            references++;
+            if (writer == null)
+            {
+                start();
+            }
+        }
+    }
+
+    /**
+     * Releases a reference taken by {@link #acquire()}. When the last
+     * reference is released the queued records are written and the file is
+     * closed.
+     */
+    public static void release()
+    {
+        Thread thread = null;
+
+        synchronized (lock)
+        {
+            if (references > 0)
+            {
+                references--;
+            }
+
+            if (references == 0 && writer != null)
+            {
+                writer.running = false;
+                thread = writer.thread;
+                stopping = thread;
+                writer = null;
+            }
+        }
+
+        if (thread != null)
+        {
+            try
+            {
+                thread.join(30000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Enqueues a formatted record to be appended to the finalized document
+     * list.
+     * 
+     * @param record
+     *            formatted record, see {@link #formatKVPResults(JSONArray, String)}
+     * @return true if the record was queued, false if the queue is full or
+     *         the writer is released
+     */
+    public static boolean submit(String record) throws InterruptedException
+    {
+        return submit(record, null);
+    }
+
+    /**
+     * Enqueues a formatted record to be appended to the finalized document
+     * list, with a callback to run once it is written.
+     * 
+     * @param record
+     *            formatted record, see {@link #formatKVPResults(JSONArray, String)}
+     * @param onWritten
+     *            run by the writer thread once the record is written, or null
+     * @return true if the record was queued, false if the queue is full or
+     *         the writer is released
+     */
+    public static boolean submit(String record, Runnable onWritten) throws InterruptedException
+    {
+        if (writer == null)
+        {
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        if (queue.offer(new Record(record, onWritten), OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+        {
+            return true;
+        }
+
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Returns a description of the writer counters, for logging.
+     */
+    public static String getStats()
+    {
+        return "queued: " + queue.size() + ", written: " + written.get() + ", batches: " + batches.get() +
+               ", rejected: " + rejected.get() + ", failed: " + failed.get();
+    }
+
+    /**
+     * Formats the document type, key classes and key class values from a
+     * KVPTable as a record of the finalized document list.
+     * 
+     * @param jsonKVPTable
+     *            JSONArray containing key classes and key class values
+     * @param documentId
+     *            Id of the source document
+     * @return the formatted record
+     */
+    public static String formatKVPResults(JSONArray jsonKVPTable, String documentId)
+    {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("Document:").append(documentId).append('\n');
+
+        if ( (jsonKVPTable != null) && (jsonKVPTable.length() > 0) )
+        {
+            // Iterate through all KVPTable elements
+            for (int i = 0, size = jsonKVPTable.length(); i < size; i++)
+            {
+                sb.append("  ");
+
+                JSONObject arrayObj = jsonKVPTable.getJSONObject(i);
+                String[] elementNames = JSONObject.getNames(arrayObj);
+
+                // Iterate though all KVPTable element names
+                for (String elementName : elementNames)
+                {
+                    // Append the required element name and value
+                    if ( elementName.equals("KeyClass") || elementName.equals("Key") || elementName.equals("Value") || elementName.equals("KeyClassConfidence") )
+                    {
+                        sb.append(elementName).append(':');
+                        if (arrayObj.isNull(elementName)) {
+                            sb.append("null");
+                        } else {
+                            sb.append(arrayObj.getString(elementName));
+                        }
+                        sb.append("  ");
+                    }
+                }
+                sb.append('\n');
+            }
+        }
+        else
+        {
+            sb.append("    No KVPTable elements found for document.\n");
+        }
+
+        return sb.toString();
+    }
+
+    private static void start()
+    {
+        // A writer still draining after a release timed out would append to the same file
+        if (stopping != null)
+        {
+            try
+            {
+                stopping.join(30000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            if (stopping.isAlive())
+            {
+                Logger.warn("KVPResultWriter.start: ", "Previous writer has not stopped, starting a new one");
+            }
+            stopping = null;
+        }
+
+        Writer current = new Writer();
+        current.thread.setDaemon(true);
+        current.thread.start();
+        writer = current;
+    }
+
+    private static void run(Writer self)
+    {
+        String method = "KVPResultWriter.run: ";
+
+        List<Record> batch = new ArrayList<Record>(MAX_BATCH);
+        StringBuilder text = new StringBuilder(8192);
+        FileChannel channel = null;
+
+        try
+        {
+            while (self.running || !queue.isEmpty())
+            {
+                Record first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                {
+                    continue;
+                }
+
+                // Collect the batch until it is full or the first record has waited long enough
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_LATENCY_MS);
+                while (batch.size() < MAX_BATCH)
+                {
+                    if (queue.drainTo(batch, MAX_BATCH - batch.size()) > 0)
+                    {
+                        continue;
+                    }
+
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || !self.running)
+                    {
+                        break;
+                    }
+
+                    Record next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null)
+                    {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                text.setLength(0);
+                for (Record record : batch)
+                {
+                    text.append(record.text);
+                }
+
+                try
+                {
+                    if (channel == null)
+                    {
+                        channel = FileChannel.open(Paths.get(Constants.FINALIZE_DOC_LIST), 
+                                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    }
+
+                    ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+                    while (buffer.hasRemaining())
+                    {
+                        channel.write(buffer);
+                    }
+                    if (SYNC)
+                    {
+                        channel.force(false);
+                    }
+
+                    written.addAndGet(batch.size());
+                    batches.incrementAndGet();
+                    for (Record record : batch)
+                    {
+                        runCallback(record);
+                    }
+                }
+                catch (IOException e)
+                {
+                    failed.addAndGet(batch.size());
+                    Logger.error(method, "Failure writing " + batch.size() + " records to " + Constants.FINALIZE_DOC_LIST, e);
+
+                    // Reopen the file for the next batch
+                    closeQuietly(channel);
+                    channel = null;
+                }
+
+                batch.clear();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Logger.warn(method, "Writer interrupted with " + queue.size() + " records queued");
+        }
+        finally
+        {
+            closeQuietly(channel);
+        }
+    }
+
+    private static void runCallback(Record record)
+    {
+        if (record.onWritten != null)
+        {
+            try
+            {
+                record.onWritten.run();
+            }
+            catch (RuntimeException e)
+            {
+                Logger.error("KVPResultWriter.run: ", "Failure in callback for written record", e);
+            }
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel)
+    {
+        try
+        {
+            if (channel != null)
+            {
+                channel.close();
+            }
+        }
+        catch (IOException e) {/* ignore */}
+    }
+}
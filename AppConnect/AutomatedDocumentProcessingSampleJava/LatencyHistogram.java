@@ -0,0 +1,255 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the style of
+ * HdrHistogram.
+ * 
+ * Values are recorded in microseconds. Values below 128 have a bucket each;
+ * above that, each power of two is split into 64 buckets, so a percentile is
+ * reported within 1/64 (about 1.6%) of the recorded value. Recording is an
+ * index computation and two atomic increments, with no lock and no
+ * allocation, so it can be called from every flow thread.
+ * 
+ * {@link #snapshot()} copies the counts; the difference of two snapshots is
+ * the distribution of an interval.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean
+{
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+
+    /** Largest magnitude tracked, about 2^40 us or 12 days */
+    private static final int MAX_SHIFT = 34;
+    private static final int BUCKETS = LINEAR_BUCKETS + MAX_SHIFT * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param name
+     *            name of the measured stage, used for reporting
+     */
+    public LatencyHistogram(String name)
+    {
+        this.name = name;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Records the time elapsed since a {@link System#nanoTime()} value
+     */
+    public void recordSince(long startNanos)
+    {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Records a value in microseconds
+     */
+    public void record(long micros)
+    {
+        if (micros < 0)
+        {
+            micros = 0;
+        }
+
+        counts.incrementAndGet(indexOf(micros));
+        sum.add(micros);
+
+        long current;
+        while (micros > (current = max.get()) && !max.compareAndSet(current, micros))
+        {
+            // Retry until this value or a larger one is the maximum
+        }
+    }
+
+    /**
+     * Returns a copy of the counts recorded so far
+     */
+    public Snapshot snapshot()
+    {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, sum.sum(), max.get());
+    }
+
+    @Override
+    public long getCount()
+    {
+        return snapshot().getCount();
+    }
+
+    @Override
+    public long getMeanMicros()
+    {
+        return snapshot().getMean();
+    }
+
+    @Override
+    public long getP50Micros()
+    {
+        return snapshot().getPercentile(50.0);
+    }
+
+    @Override
+    public long getP99Micros()
+    {
+        return snapshot().getPercentile(99.0);
+    }
+
+    @Override
+    public long getP999Micros()
+    {
+        return snapshot().getPercentile(99.9);
+    }
+
+    @Override
+    public long getMaxMicros()
+    {
+        return max.get();
+    }
+
+    static int indexOf(long micros)
+    {
+        if (micros < LINEAR_BUCKETS)
+        {
+            return (int) micros;
+        }
+
+        // Shift so that the value keeps its 7 top bits, 64..127
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        if (shift > MAX_SHIFT)
+        {
+            return BUCKETS - 1;
+        }
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (micros >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the largest value counted in a bucket
+     */
+    static long highestValueOf(int index)
+    {
+        if (index < LINEAR_BUCKETS)
+        {
+            return index;
+        }
+
+        int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long top = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * Counts of a histogram at one point in time
+     */
+    public static final class Snapshot
+    {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max)
+        {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * Returns the values recorded after an earlier snapshot of the same
+         * histogram. The maximum is that of the highest bucket counted.
+         */
+        public Snapshot since(Snapshot earlier)
+        {
+            long[] delta = new long[counts.length];
+            int highest = -1;
+            for (int i = 0; i < counts.length; i++)
+            {
+                delta[i] = counts[i] - earlier.counts[i];
+                if (delta[i] > 0)
+                {
+                    highest = i;
+                }
+            }
+            long intervalMax = (highest < 0) ? 0 : Math.min(highestValueOf(highest), max);
+            return new Snapshot(delta, count - earlier.count, sum - earlier.sum, intervalMax);
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getMean()
+        {
+            return (count == 0) ? 0 : sum / count;
+        }
+
+        public long getMax()
+        {
+            return max;
+        }
+
+        /**
+         * Returns the value below which the given percentage of the recorded
+         * values fall, in microseconds
+         */
+        public long getPercentile(double percentile)
+        {
+            if (count == 0)
+            {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++)
+            {
+                seen += counts[i];
+                if (seen >= rank)
+                {
+                    return Math.min(highestValueOf(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,572 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous appender used by {@link Logger}.
+ * 
+ * Flow threads only publish log events into a bounded lock-free ring buffer.
+ * A background thread drains the buffer in batches, formats each event as a
+ * structured JSON line (timestamp, level, thread, correlation id, method,
+ * message and exception) and writes it to a rolling file, or to
+ * {@code System.out} when no file is configured.
+ * 
+ * When the buffer is full, events are dropped or the publishing thread waits
+ * for space, depending on {@code LOG_ASYNC_FULL_POLICY}. Dropped events are
+ * counted and the count is reported in the log once space is available.
+ * 
+ * The background thread parks while the buffer is empty and is unparked by
+ * the next published event.
+ * 
+ * The background thread is started by the first logged event. Flows that
+ * share the appender take a reference with {@link #acquire()}; when the last
+ * one is released the queued events are written and the thread stops, and
+ * the next logged event starts a new one once the previous has finished.
+ */
+public class LogAppender
+{
+    /**
+     * A single log event
+     */
+    static final class Event
+    {
+        final long timestamp;
+        final Logger.Level level;
+        final String thread;
+        final String correlationId;
+        final String method;
+        final String message;
+        final Throwable exception;
+
+        Event(Logger.Level level, String correlationId, String method, String message, Throwable exception)
+        {
+            this.timestamp = System.currentTimeMillis();
+            this.level = level;
+            this.thread = Thread.currentThread().getName();
+            this.correlationId = correlationId;
+            this.method = method;
+            this.message = message;
+            this.exception = exception;
+        }
+    }
+
+    /**
+     * Bounded multi-producer ring buffer; each slot has a sequence number that
+     * tells producers and the consumer whether it is free or published.
+     */
+    static final class RingBuffer
+    {
+        private final int mask;
+        private final AtomicReferenceArray<Event> events;
+        private final AtomicLongArray sequences;
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong head = new AtomicLong();
+
+        RingBuffer(int capacity)
+        {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            mask = size - 1;
+            events = new AtomicReferenceArray<Event>(size);
+            sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++)
+            {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(Event event)
+        {
+            while (true)
+            {
+                long position = tail.get();
+                int index = (int) position & mask;
+                long diff = sequences.get(index) - position;
+
+                if (diff == 0)
+                {
+                    if (tail.compareAndSet(position, position + 1))
+                    {
+                        events.lazySet(index, event);
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                }
+                else if (diff < 0)
+                {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Single consumer only
+         */
+        Event poll()
+        {
+            long position = head.get();
+            int index = (int) position & mask;
+
+            if (sequences.get(index) - (position + 1) < 0)
+            {
+                return null;
+            }
+
+            Event event = events.get(index);
+            events.lazySet(index, null);
+            head.lazySet(position + 1);
+            sequences.set(index, position + mask + 1);
+            return event;
+        }
+
+        boolean isEmpty()
+        {
+            return head.get() == tail.get();
+        }
+
+        /**
+         * Number of events published so far
+         */
+        long published()
+        {
+            return tail.get();
+        }
+
+        /**
+         * Number of events consumed so far
+         */
+        long consumed()
+        {
+            return head.get();
+        }
+    }
+
+    private static final int BUFFER_SIZE = Logger.getIntProperty("LOG_ASYNC_BUFFER_SIZE", 8192);
+    private static final boolean BLOCK_WHEN_FULL = "BLOCK".equalsIgnoreCase(Logger.getProperty("LOG_ASYNC_FULL_POLICY", "DROP"));
+    private static final int MAX_BATCH = 256;
+
+    private static final String LOG_FILE = Logger.getProperty("LOG_FILE", "");
+    private static final long LOG_FILE_MAX_BYTES = Logger.getIntProperty("LOG_FILE_MAX_BYTES", 10485760);
+    private static final int LOG_FILE_MAX_FILES = Logger.getIntProperty("LOG_FILE_MAX_FILES", 5);
+
+    private static final RingBuffer buffer = new RingBuffer(BUFFER_SIZE);
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static final Object lock = new Object();
+    private static volatile Drainer drainer;
+    private static Thread stopped;
+    private static int references = 0;
+
+    /**
+     * Background thread, with its own stop flag. A drainer started after a
+     * release waits for the previous one to finish, so that the buffer has a
+     * single consumer.
+     */
+    private static final class Drainer implements Runnable
+    {
+        final Thread thread = new Thread(this, "LogAppender");
+        final Thread previous;
+        volatile boolean running = true;
+        volatile boolean idle = false;
+        volatile long stopAt;
+
+        Drainer(Thread previous)
+        {
+            this.previous = previous;
+        }
+
+        /**
+         * Stops once the events published so far are written; later events are
+         * left to the next drainer
+         */
+        void stop()
+        {
+            stopAt = buffer.published();
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+        /**
+         * Unparks the thread if it is waiting for events
+         */
+        void wake()
+        {
+            if (idle)
+            {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            if (previous != null)
+            {
+                try
+                {
+                    previous.join();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+            }
+            drain(this);
+        }
+    }
+
+    /**
+     * Publishes an event for the background thread. Does not block unless the
+     * buffer is full and the policy is BLOCK.
+     */
+    static void append(Event event)
+    {
+        if (drainer == null)
+        {
+            start();
+        }
+
+        if (!buffer.offer(event))
+        {
+            if (!BLOCK_WHEN_FULL)
+            {
+                dropped.incrementAndGet();
+                return;
+            }
+
+            while (!buffer.offer(event))
+            {
+                Drainer current = drainer;
+                if (current == null || !current.running)
+                {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+            }
+        }
+
+        Drainer current = drainer;
+        if (current != null)
+        {
+            current.wake();
+        }
+    }
+
+    /**
+     * Returns the number of events dropped because the buffer was full
+     */
+    public static long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Takes a reference on the appender; the background thread is started by
+     * the first logged event.
+     */
+    public static void acquire()
+    {
+        synchronized (lock)
+        {
+            references++;
+        }
+    }
+
+    /**
+     * Releases a reference taken by {@link #acquire()}. When the last
+     * reference is released the queued events are written and the background
+     * thread stops. It is restarted by the next logged event.
+     */
+    public static void release()
+    {
+        Thread thread = null;
+        synchronized (lock)
+        {
+            if (references > 0)
+            {
+                references--;
+            }
+
+            if (references == 0 && drainer != null)
+            {
+                drainer.stop();
+                thread = drainer.thread;
+                stopped = thread;
+                drainer = null;
+            }
+        }
+
+        if (thread != null)
+        {
+            try
+            {
+                thread.join(10000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void start()
+    {
+        synchronized (lock)
+        {
+            if (drainer == null)
+            {
+                Thread previous = (stopped != null && stopped.isAlive()) ? stopped : null;
+                Drainer current = new Drainer(previous);
+                current.thread.setDaemon(true);
+                current.thread.start();
+                drainer = current;
+            }
+        }
+    }
+
+    private static void drain(Drainer self)
+    {
+        RollingOutput output = new RollingOutput();
+        StringBuilder sb = new StringBuilder(8192);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long reportedDropped = 0;
+
+        try
+        {
+            while (self.running || buffer.consumed() < self.stopAt)
+            {
+                sb.setLength(0);
+
+                int count = 0;
+                Event event;
+                while (count < MAX_BATCH && (event = buffer.poll()) != null)
+                {
+                    format(event, sb, dateFormat);
+                    count++;
+                }
+
+                long droppedNow = dropped.get();
+                if (droppedNow != reportedDropped)
+                {
+                    format(new Event(Logger.Level.WARN, null, "LogAppender.drain: ", 
+                                     (droppedNow - reportedDropped) + " log events dropped, " + droppedNow + " in total", null), 
+                           sb, dateFormat);
+                    reportedDropped = droppedNow;
+                }
+
+                if (sb.length() > 0)
+                {
+                    output.write(sb);
+                }
+                else
+                {
+                    output.flush();
+
+                    // Park until the next event is published; the buffer is checked again
+                    // after setting the flag so that an event published meanwhile is not missed
+                    self.idle = true;
+                    if (self.running && buffer.isEmpty())
+                    {
+                        LockSupport.park(self);
+                    }
+                    self.idle = false;
+                }
+            }
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+
+    /**
+     * Formats an event as a JSON line
+     */
+    static void format(Event event, StringBuilder sb, SimpleDateFormat dateFormat)
+    {
+        sb.append("{\"timestamp\":\"").append(dateFormat.format(new Date(event.timestamp)));
+        sb.append("\",\"level\":\"").append(event.level.name());
+        sb.append("\",\"thread\":");
+        appendString(sb, event.thread);
+        sb.append(",\"correlationId\":");
+        appendString(sb, event.correlationId);
+        sb.append(",\"method\":");
+        appendString(sb, trimMethod(event.method));
+        sb.append(",\"message\":");
+        appendString(sb, event.message);
+
+        if (event.exception != null)
+        {
+            StringWriter trace = new StringWriter();
+            event.exception.printStackTrace(new PrintWriter(trace));
+            sb.append(",\"exception\":");
+            appendString(sb, trace.toString());
+        }
+        sb.append("}\n");
+    }
+
+    private static String trimMethod(String method)
+    {
+        if (method == null)
+            return null;
+
+        int end = method.length();
+        while (end > 0 && (method.charAt(end - 1) == ' ' || method.charAt(end - 1) == ':'))
+        {
+            end--;
+        }
+        return method.substring(0, end);
+    }
+
+    private static void appendString(StringBuilder sb, String value)
+    {
+        if (value == null)
+        {
+            sb.append("null");
+            return;
+        }
+
+        sb.append('"');
+        for (int i = 0, len = value.length(); i < len; i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Size-based rolling file, or System.out when LOG_FILE is not set
+     */
+    private static final class RollingOutput
+    {
+        private OutputStream out;
+        private long size;
+
+        void write(CharSequence text)
+        {
+            byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+
+            if (LOG_FILE.length() == 0)
+            {
+                System.out.write(bytes, 0, bytes.length);
+                return;
+            }
+
+            try
+            {
+                if (out != null && size + bytes.length > LOG_FILE_MAX_BYTES)
+                {
+                    roll();
+                }
+                if (out == null)
+                {
+                    File file = new File(LOG_FILE);
+                    size = file.length();
+                    out = new FileOutputStream(file, true);
+                }
+
+                out.write(bytes);
+                size += bytes.length;
+            }
+            catch (IOException e)
+            {
+                // Fall back to System.out so that the events are not lost
+                System.out.println("LogAppender: (ERROR) Failure writing " + LOG_FILE + ": " + e.getMessage());
+                System.out.write(bytes, 0, bytes.length);
+                close();
+            }
+        }
+
+        void flush()
+        {
+            try
+            {
+                if (out != null)
+                    out.flush();
+                else
+                    System.out.flush();
+            }
+            catch (IOException e) {/* ignore */}
+        }
+
+        void close()
+        {
+            try
+            {
+                if (out != null)
+                    out.close();
+            }
+            catch (IOException e) {/* ignore */}
+            out = null;
+            System.out.flush();
+        }
+
+        private void roll()
+        {
+            close();
+
+            for (int i = LOG_FILE_MAX_FILES - 1; i >= 1; i--)
+            {
+                File from = new File(LOG_FILE + "." + i);
+                if (from.exists())
+                {
+                    File to = new File(LOG_FILE + "." + (i + 1));
+                    to.delete();
+                    from.renameTo(to);
+                }
+            }
+
+            File current = new File(LOG_FILE);
+            File first = new File(LOG_FILE + ".1");
+            first.delete();
+            current.renameTo(first);
+        }
+    }
+}
@@ -19,17 +19,152 @@
  * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
  */
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
 /**
  * Utility methods for handling logging
+ * 
+ * Messages are written only when their level is enabled for the class that
+ * logs them. Levels are set in {@code Logger.properties}, with a default level
+ * and optional per-class levels keyed by the class name that starts the
+ * {@code method} argument, e.g. {@code LOG_LEVEL.GraphQLAPIUtil = DEBUG}.
+ * 
+ * The {@code Supplier} overloads only build the message when the level is
+ * enabled. Large payloads such as GraphQL responses and KVPTables should be
+ * logged with {@link #payload(String, Level, String, PayloadWriter)}, which
+ * samples them and stops rendering them at {@code LOG_PAYLOAD_MAX_CHARS}.
+ * 
+ * Enabled messages are written to {@code System.out} as text. When
+ * {@code LOG_ASYNC} is true they are instead handed to the {@link LogAppender}
+ * background thread as structured events, so flow threads do not wait on the
+ * output; each event carries the correlation id set for the current thread
+ * with {@link #setCorrelationId(String)}.
  */
 public class Logger
 {
+    /**
+     * Log levels, from the least to the most verbose
+     */
+    public enum Level
+    {
+        OFF, ERROR, WARN, INFO, DEBUG
+    }
+
+    /**
+     * Renders a payload, for example {@code jsonKVPTable::write}
+     */
+    @FunctionalInterface
+    public interface PayloadWriter
+    {
+        void write(Writer writer) throws IOException;
+    }
+
+    private static final Properties LOG_PROPERTIES = new Properties();
+
+    private static final Level DEFAULT_LEVEL;
+    private static final int PAYLOAD_MAX_CHARS;
+    private static final int PAYLOAD_SAMPLE_RATE;
+
+    /** Enabled level by method name, resolved from the class level on first use */
+    private static final ConcurrentHashMap<String, Level> levels = new ConcurrentHashMap<String, Level>();
+
+    private static final AtomicLong payloadCount = new AtomicLong();
+
+    private static final ThreadLocal<String> correlationId = new ThreadLocal<String>();
+
+    private static final boolean ASYNC;
+    private static final ReentrantLock SYNC_LOCK = new ReentrantLock();
+
+    // Load the log levels from Logger.properties
+    static
+    {
+        InputStream in = Logger.class.getClassLoader().getResourceAsStream("Logger.properties");
+
+        if (in != null)
+        {
+            try
+            {
+                LOG_PROPERTIES.load(in);
+                in.close();
+            }
+            catch (IOException e)
+            {
+                System.out.println("Logger: (ERROR) IOException loading Logger.properties: " + e.getMessage());
+            }
+        }
+
+        DEFAULT_LEVEL = parseLevel(LOG_PROPERTIES.getProperty("LOG_LEVEL"), Level.INFO);
+        PAYLOAD_MAX_CHARS = parseInt(LOG_PROPERTIES.getProperty("LOG_PAYLOAD_MAX_CHARS"), 2048);
+        PAYLOAD_SAMPLE_RATE = Math.max(1, parseInt(LOG_PROPERTIES.getProperty("LOG_PAYLOAD_SAMPLE_RATE"), 1));
+        ASYNC = Boolean.parseBoolean(getProperty("LOG_ASYNC", "false"));
+    }
+
+    /**
+     * Sets the correlation id logged with messages from the current thread,
+     * e.g. the source object id of the webhook event being processed.
+     */
+    public static void setCorrelationId(String id)
+    {
+        correlationId.set(id);
+    }
+
+    /**
+     * Clears the correlation id of the current thread
+     */
+    public static void clearCorrelationId()
+    {
+        correlationId.remove();
+    }
+
+    /**
+     * Returns true if messages of the given level are logged for the method
+     */
+    public static boolean isEnabled(String method, Level level)
+    {
+        Level enabled = levels.get(method);
+        if (enabled == null)
+        {
+            enabled = parseLevel(LOG_PROPERTIES.getProperty("LOG_LEVEL." + getClassName(method)), DEFAULT_LEVEL);
+            levels.put(method, enabled);
+        }
+        return level != Level.OFF && level.compareTo(enabled) <= 0;
+    }
+
+    /**
+     * Returns true if debug messages are logged for the method
+     */
+    public static boolean isDebugEnabled(String method)
+    {
+        return isEnabled(method, Level.DEBUG);
+    }
+
     /**
      * Logs an info message
      */
     public static void info(String method, String msg)
     {
-		System.out.println(method + msg);
+        if (isEnabled(method, Level.INFO))
+        {
+            write(Level.INFO, method, msg, null);
+        }
+    }
+
+    /**
+     * Logs an info message, built only if info is enabled
+     */
+    public static void info(String method, Supplier<String> msg)
+    {
+        if (isEnabled(method, Level.INFO))
+        {
+            write(Level.INFO, method, msg.get(), null);
+        }
     }
 
     /**
@@ -37,7 +172,21 @@ public class Logger
      */
     public static void warn(String method, String msg)
     {
-		System.out.println(method + "(WARNING) " + msg);
+        if (isEnabled(method, Level.WARN))
+        {
+            write(Level.WARN, method, msg, null);
+        }
+    }
+
+    /**
+     * Logs a warning message, built only if warnings are enabled
+     */
+    public static void warn(String method, Supplier<String> msg)
+    {
+        if (isEnabled(method, Level.WARN))
+        {
+            write(Level.WARN, method, msg.get(), null);
+        }
     }
 
     /**
@@ -45,7 +194,21 @@ public class Logger
      */
     public static void debug(String method, String msg)
     {
-		System.out.println(method + "(DEBUG) " + msg);
+        if (isEnabled(method, Level.DEBUG))
+        {
+            write(Level.DEBUG, method, msg, null);
+        }
+    }
+
+    /**
+     * Logs a debug message, built only if debug is enabled
+     */
+    public static void debug(String method, Supplier<String> msg)
+    {
+        if (isEnabled(method, Level.DEBUG))
+        {
+            write(Level.DEBUG, method, msg.get(), null);
+        }
     }
 
     /**
@@ -53,14 +216,222 @@ public class Logger
      */
     public static void error(String method, String msg, Exception ex)
     {
-		System.out.println(method + "(ERROR) " + msg);
-		
-		if (ex != null) {
-			System.out.println(method + "Exception message: " + ex.getMessage() + ", Cause: " + ex.getCause());
-			ex.printStackTrace();
-		}
-		
-		System.out.println(method + "Exiting");
+        if (isEnabled(method, Level.ERROR))
+        {
+            write(Level.ERROR, method, msg, ex);
+        }
+    }
+
+    /**
+     * Logs a large payload, such as a JSON response. When the level is enabled
+     * only one payload in {@code LOG_PAYLOAD_SAMPLE_RATE} is logged, and
+     * rendering stops after {@code LOG_PAYLOAD_MAX_CHARS} characters, so the
+     * cost does not grow with the size of the payload.
+     * 
+     * @param method
+     *            method name, used for the level of the class
+     * @param level
+     *            level to log the payload at
+     * @param label
+     *            text logged before the payload
+     * @param payload
+     *            renders the payload, e.g. {@code jsonResponse::write}
+     */
+    public static void payload(String method, Level level, String label, PayloadWriter payload)
+    {
+        if (!isEnabled(method, level))
+        {
+            return;
+        }
+
+        long count = payloadCount.getAndIncrement();
+        if (count % PAYLOAD_SAMPLE_RATE != 0)
+        {
+            return;
+        }
+
+        BoundedWriter out = new BoundedWriter(label, PAYLOAD_MAX_CHARS);
+        try
+        {
+            payload.write(out);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            if (!out.truncated)
+            {
+                out.text.append("... (failed to render: ").append(e).append(')');
+            }
+        }
+
+        if (out.truncated)
+        {
+            out.text.append("... (truncated at ").append(PAYLOAD_MAX_CHARS).append(" characters)");
+        }
+
+        write(level, method, out.text.toString(), null);
+    }
+
+    /**
+     * Returns a property from Logger.properties
+     */
+    static String getProperty(String key, String defaultValue)
+    {
+        String value = LOG_PROPERTIES.getProperty(key);
+        return (value != null) ? value.trim() : defaultValue;
+    }
+
+    /**
+     * Returns an integer property from Logger.properties
+     */
+    static int getIntProperty(String key, int defaultValue)
+    {
+        return parseInt(LOG_PROPERTIES.getProperty(key), defaultValue);
     }
 
+    private static void write(Level level, String method, String msg, Throwable ex)
+    {
+        if (ASYNC)
+        {
+            LogAppender.append(new LogAppender.Event(level, correlationId.get(), method, msg, ex));
+            return;
+        }
+
+        // Not a monitor, writing to System.out under a monitor pins virtual threads
+        SYNC_LOCK.lock();
+        try
+        {
+            writeText(level, method, msg, ex);
+        }
+        finally
+        {
+            SYNC_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Writes a message to System.out in the text format of the sample
+     */
+    private static void writeText(Level level, String method, String msg, Throwable ex)
+    {
+        switch (level)
+        {
+            case ERROR:
+                System.out.println(method + "(ERROR) " + msg);
+
+                if (ex != null)
+                {
+                    System.out.println(method + "Exception message: " + ex.getMessage() + ", Cause: " + ex.getCause());
+                    ex.printStackTrace();
+                }
+
+                System.out.println(method + "Exiting");
+                break;
+            case WARN:
+                System.out.println(method + "(WARNING) " + msg);
+                break;
+            case DEBUG:
+                System.out.println(method + "(DEBUG) " + msg);
+                break;
+            default:
+                System.out.println(method + msg);
+        }
+    }
+
+    /**
+     * Returns the class name at the start of a method name such as
+     * {@code "GraphQLAPIUtil.callGraphQLAPI: "}
+     */
+    private static String getClassName(String method)
+    {
+        int end = 0;
+        while (end < method.length() && Character.isJavaIdentifierPart(method.charAt(end)))
+        {
+            end++;
+        }
+        return method.substring(0, end);
+    }
+
+    private static Level parseLevel(String value, Level defaultLevel)
+    {
+        if (value == null)
+        {
+            return defaultLevel;
+        }
+
+        try
+        {
+            return Level.valueOf(value.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println("Logger: (WARNING) Invalid log level: " + value);
+            return defaultLevel;
+        }
+    }
+
+    private static int parseInt(String value, int defaultValue)
+    {
+        try
+        {
+            return (value == null) ? defaultValue : Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            System.out.println("Logger: (WARNING) Invalid number: " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Writer that keeps the first characters written and then fails, so that
+     * rendering a large payload stops at the limit
+     */
+    private static final class BoundedWriter extends Writer
+    {
+        final StringBuilder text;
+        final int limit;
+        boolean truncated;
+
+        BoundedWriter(String label, int maxChars)
+        {
+            text = new StringBuilder(label.length() + Math.min(maxChars, 4096) + 64).append(label);
+            limit = text.length() + maxChars;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException
+        {
+            int room = limit - text.length();
+            if (len > room)
+            {
+                text.append(cbuf, off, Math.max(room, 0));
+                truncated = true;
+                throw new IOException("Payload truncated");
+            }
+            text.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException
+        {
+            int room = limit - text.length();
+            if (len > room)
+            {
+                text.append(str, off, off + Math.max(room, 0));
+                truncated = true;
+                throw new IOException("Payload truncated");
+            }
+            text.append(str, off, off + len);
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
 }
@@ -0,0 +1,456 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Latency of each stage of webhook processing, and the count of events by
+ * outcome.
+ * 
+ * Each {@link Stage} has a {@link LatencyHistogram}; a stage is measured with
+ * <pre>
+ * long start = StageMetrics.start();
+ * ...
+ * StageMetrics.record(Stage.HMAC, start);
+ * </pre>
+ * 
+ * The histograms and counters are registered as MBeans under
+ * {@code ADPWebhook:type=Stage,name=<stage>} and
+ * {@code ADPWebhook:type=Outcomes}, the Content Services response bytes
+ * (see {@link ContentEncoding}) under {@code ADPWebhook:type=Transfer}, and a
+ * snapshot line with the count, p50,
+ * p99, p999 and max of each stage over the last interval is logged every
+ * {@code METRICS_REPORT_INTERVAL_MS}.
+ */
+public class StageMetrics
+{
+    /**
+     * Measured stages
+     */
+    public enum Stage
+    {
+        /** Whole evaluate call, until the reply */
+        REQUEST,
+        /** HMAC verification */
+        HMAC,
+        /** Reading the event fields from the body */
+        PARSE,
+        /** Content Services availability check */
+        PING,
+        /** GET_DOC_ANNOTATIONS lookup */
+        ANNOTATIONS,
+        /** Annotation content download, per content element */
+        DOWNLOAD,
+        /** Bearer token acquisition */
+        TOKEN,
+        /** Result write, from queueing until written */
+        WRITE,
+        /** Whole enrichment of an event, inline or on the worker pool */
+        ENRICH
+    }
+
+    /**
+     * Outcome of an event. ERROR counts the failures outside the enrichment,
+     * such as an unreadable message, that are not answered by the flow.
+     */
+    public enum Outcome
+    {
+        OK, HMAC_REJECT, REGISTRATION_REJECT, DUPLICATE, GRAPHQL_ERROR, DOWNLOAD_ERROR, OVERLOADED, ERROR
+    }
+
+    /**
+     * JMX view of the outcome counters
+     */
+    public interface OutcomesMBean
+    {
+        long getOk();
+
+        long getHmacReject();
+
+        long getRegistrationReject();
+
+        long getDuplicate();
+
+        long getGraphQLError();
+
+        long getDownloadError();
+
+        long getOverloaded();
+
+        long getError();
+    }
+
+    /**
+     * JMX view of the Content Services response bytes
+     */
+    public interface TransferMBean
+    {
+        long getResponses();
+
+        long getCompressedResponses();
+
+        long getReceivedBytes();
+
+        long getDecodedBytes();
+    }
+
+    private static final boolean ENABLED = CSServerInfo.getBoolean("METRICS_ENABLED", true);
+    private static final long REPORT_INTERVAL_MS = CSServerInfo.getLong("METRICS_REPORT_INTERVAL_MS", 60000);
+    private static final String JMX_DOMAIN = "ADPWebhook";
+
+    private static final EnumMap<Stage, LatencyHistogram> histograms = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+    private static final AtomicLongArray outcomes = new AtomicLongArray(Outcome.values().length);
+
+    static
+    {
+        for (Stage stage : Stage.values())
+        {
+            histograms.put(stage, new LatencyHistogram(stage.name()));
+        }
+    }
+
+    private static final Object lock = new Object();
+    private static ScheduledExecutorService reporter;
+    private static final List<ObjectName> registered = new ArrayList<ObjectName>();
+    private static int references = 0;
+
+    /**
+     * Returns the start time of a stage, for {@link #record(Stage, long)}
+     */
+    public static long start()
+    {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the latency of a stage
+     * 
+     * @param stage
+     *            measured stage
+     * @param startNanos
+     *            value returned by {@link #start()}
+     */
+    public static void record(Stage stage, long startNanos)
+    {
+        if (ENABLED)
+        {
+            histograms.get(stage).recordSince(startNanos);
+        }
+    }
+
+    /**
+     * Counts the outcome of an event
+     */
+    public static void count(Outcome outcome)
+    {
+        if (ENABLED)
+        {
+            outcomes.incrementAndGet(outcome.ordinal());
+        }
+    }
+
+    /**
+     * Returns the histogram of a stage
+     */
+    public static LatencyHistogram getHistogram(Stage stage)
+    {
+        return histograms.get(stage);
+    }
+
+    /**
+     * Returns the number of events with an outcome
+     */
+    public static long getCount(Outcome outcome)
+    {
+        return outcomes.get(outcome.ordinal());
+    }
+
+    /**
+     * Registers the MBeans and starts the periodic snapshot line if this is
+     * the first reference.
+     */
+    public static void acquire()
+    {
+        if (!ENABLED)
+        {
+            return;
+        }
+
+        synchronized (lock)
+        {
+            references++;
+            if (reporter == null)
+            {
+                registerMBeans();
+
+                reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "StageMetrics");
+                    t.setDaemon(true);
+                    return t;
+                });
+                if (REPORT_INTERVAL_MS > 0)
+                {
+                    reporter.scheduleAtFixedRate(new Reporter(), REPORT_INTERVAL_MS, REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases a reference taken by {@link #acquire()}. The MBeans are
+     * unregistered when the last reference is released; the counts are kept.
+     */
+    public static void release()
+    {
+        if (!ENABLED)
+        {
+            return;
+        }
+
+        synchronized (lock)
+        {
+            if (references > 0)
+            {
+                references--;
+            }
+
+            if (references == 0 && reporter != null)
+            {
+                reporter.shutdownNow();
+                reporter = null;
+                unregisterMBeans();
+            }
+        }
+    }
+
+    private static void registerMBeans()
+    {
+        String method = "StageMetrics.registerMBeans: ";
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            for (LatencyHistogram histogram : histograms.values())
+            {
+                register(server, new ObjectName(JMX_DOMAIN + ":type=Stage,name=" + histogram.getName()), histogram);
+            }
+            register(server, new ObjectName(JMX_DOMAIN + ":type=Outcomes"), 
+                     new StandardMBean(new Outcomes(), OutcomesMBean.class));
+            register(server, new ObjectName(JMX_DOMAIN + ":type=Transfer"), 
+                     new StandardMBean(new Transfer(), TransferMBean.class));
+        }
+        catch (JMException e)
+        {
+            Logger.error(method, "Failure registering metrics MBeans", e);
+        }
+    }
+
+    private static void register(MBeanServer server, ObjectName name, Object mbean) throws JMException
+    {
+        // Left registered by another flow or an earlier deployment
+        if (server.isRegistered(name))
+        {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(mbean, name);
+        registered.add(name);
+    }
+
+    private static void unregisterMBeans()
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered)
+        {
+            try
+            {
+                server.unregisterMBean(name);
+            }
+            catch (JMException e) {/* ignore */}
+        }
+        registered.clear();
+    }
+
+    /**
+     * Logs the distribution of each stage since the previous report
+     */
+    private static final class Reporter implements Runnable
+    {
+        private final EnumMap<Stage, LatencyHistogram.Snapshot> previous = new EnumMap<Stage, LatencyHistogram.Snapshot>(Stage.class);
+        private final long[] previousOutcomes = new long[Outcome.values().length];
+        private long previousReceived = ContentEncoding.getReceivedBytes();
+        private long previousDecoded = ContentEncoding.getDecodedBytes();
+
+        Reporter()
+        {
+            for (Stage stage : Stage.values())
+            {
+                previous.put(stage, histograms.get(stage).snapshot());
+            }
+            for (Outcome outcome : Outcome.values())
+            {
+                previousOutcomes[outcome.ordinal()] = getCount(outcome);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            StringBuilder sb = new StringBuilder(512);
+            sb.append("interval ").append(REPORT_INTERVAL_MS / 1000).append("s, latency in us, outcomes");
+
+            boolean any = false;
+            for (Outcome outcome : Outcome.values())
+            {
+                long current = getCount(outcome);
+                long delta = current - previousOutcomes[outcome.ordinal()];
+                previousOutcomes[outcome.ordinal()] = current;
+                if (delta > 0)
+                {
+                    sb.append(' ').append(outcome.name().toLowerCase()).append('=').append(delta);
+                    any = true;
+                }
+            }
+            if (!any)
+            {
+                sb.append(" none");
+            }
+
+            for (Stage stage : Stage.values())
+            {
+                LatencyHistogram.Snapshot current = histograms.get(stage).snapshot();
+                LatencyHistogram.Snapshot interval = current.since(previous.get(stage));
+                previous.put(stage, current);
+                if (interval.getCount() == 0)
+                {
+                    continue;
+                }
+
+                sb.append(" | ").append(stage.name()).append(" n=").append(interval.getCount())
+                  .append(" p50=").append(interval.getPercentile(50.0))
+                  .append(" p99=").append(interval.getPercentile(99.0))
+                  .append(" p999=").append(interval.getPercentile(99.9))
+                  .append(" max=").append(interval.getMax());
+            }
+
+            long received = ContentEncoding.getReceivedBytes();
+            long decoded = ContentEncoding.getDecodedBytes();
+            if (decoded > previousDecoded)
+            {
+                sb.append(" | transfer received=").append(received - previousReceived)
+                  .append(" decoded=").append(decoded - previousDecoded);
+            }
+            previousReceived = received;
+            previousDecoded = decoded;
+
+            Logger.info("StageMetrics.report: ", sb.toString());
+        }
+    }
+
+    private static final class Outcomes implements OutcomesMBean
+    {
+        @Override
+        public long getOk()
+        {
+            return getCount(Outcome.OK);
+        }
+
+        @Override
+        public long getHmacReject()
+        {
+            return getCount(Outcome.HMAC_REJECT);
+        }
+
+        @Override
+        public long getRegistrationReject()
+        {
+            return getCount(Outcome.REGISTRATION_REJECT);
+        }
+
+        @Override
+        public long getDuplicate()
+        {
+            return getCount(Outcome.DUPLICATE);
+        }
+
+        @Override
+        public long getGraphQLError()
+        {
+            return getCount(Outcome.GRAPHQL_ERROR);
+        }
+
+        @Override
+        public long getDownloadError()
+        {
+            return getCount(Outcome.DOWNLOAD_ERROR);
+        }
+
+        @Override
+        public long getOverloaded()
+        {
+            return getCount(Outcome.OVERLOADED);
+        }
+
+        @Override
+        public long getError()
+        {
+            return getCount(Outcome.ERROR);
+        }
+    }
+
+    private static final class Transfer implements TransferMBean
+    {
+        @Override
+        public long getResponses()
+        {
+            return ContentEncoding.getResponses();
+        }
+
+        @Override
+        public long getCompressedResponses()
+        {
+            return ContentEncoding.getCompressedResponses();
+        }
+
+        @Override
+        public long getReceivedBytes()
+        {
+            return ContentEncoding.getReceivedBytes();
+        }
+
+        @Override
+        public long getDecodedBytes()
+        {
+            return ContentEncoding.getDecodedBytes();
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Executors for the blocking Content Services I/O (bearer token, GraphQL
+ * calls, annotation downloads and result writes) done by the enrichment and
+ * download pools.
+ * 
+ * With {@code VIRTUAL_THREADS_ENABLED} on a Java 21 or later runtime, each
+ * task runs on its own virtual thread and a semaphore caps the number of
+ * tasks running at once, so that waiting on Content Services does not hold a
+ * platform thread. The virtual thread API is looked up by reflection so that
+ * the sample still compiles and runs on Java 8; on older runtimes, or when
+ * virtual threads are disabled, the executors are fixed pools of platform
+ * daemon threads with the same limits.
+ * 
+ * Code run by these executors must not block while holding a monitor, which
+ * pins a virtual thread to its carrier thread: use a
+ * {@link java.util.concurrent.locks.ReentrantLock} instead of
+ * {@code synchronized} around anything that waits.
+ */
+public class VirtualThreads
+{
+    private static final boolean ENABLED = CSServerInfo.getBoolean("VIRTUAL_THREADS_ENABLED", false);
+
+    private static final Method OF_VIRTUAL = findOfVirtual();
+
+    /**
+     * Returns true if the executors run tasks on virtual threads
+     */
+    public static boolean isEnabled()
+    {
+        return ENABLED && OF_VIRTUAL != null;
+    }
+
+    /**
+     * Creates an executor that runs at most {@code concurrency} tasks at once
+     * and holds at most {@code queueCapacity} tasks waiting to run; further
+     * tasks are rejected with {@link RejectedExecutionException}.
+     * 
+     * @param name
+     *            thread name prefix
+     * @param concurrency
+     *            maximum number of tasks running at once
+     * @param queueCapacity
+     *            maximum number of tasks waiting, or 0 for no limit
+     * @return The executor, on virtual threads if they are enabled
+     */
+    public static ExecutorService newExecutor(String name, int concurrency, int queueCapacity)
+    {
+        ThreadFactory virtual = isEnabled() ? newVirtualThreadFactory(name) : null;
+        if (virtual != null)
+        {
+            return new BoundedExecutor(virtual, concurrency, queueCapacity);
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        BlockingQueue<Runnable> queue = (queueCapacity > 0) ? new ArrayBlockingQueue<Runnable>(queueCapacity) 
+                                                            : new LinkedBlockingQueue<Runnable>();
+        return new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS, queue, r -> {
+            Thread t = new Thread(r, name + "-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Returns the number of tasks waiting to run in an executor created by
+     * {@link #newExecutor(String, int, int)}
+     */
+    public static int getQueueDepth(ExecutorService executor)
+    {
+        if (executor instanceof BoundedExecutor)
+        {
+            return ((BoundedExecutor) executor).getQueueDepth();
+        }
+        if (executor instanceof ThreadPoolExecutor)
+        {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of tasks running in an executor created by
+     * {@link #newExecutor(String, int, int)}
+     */
+    public static int getActiveCount(ExecutorService executor)
+    {
+        if (executor instanceof BoundedExecutor)
+        {
+            return ((BoundedExecutor) executor).getActiveCount();
+        }
+        if (executor instanceof ThreadPoolExecutor)
+        {
+            return ((ThreadPoolExecutor) executor).getActiveCount();
+        }
+        return 0;
+    }
+
+    private static Method findOfVirtual()
+    {
+        try
+        {
+            return Thread.class.getMethod("ofVirtual");
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns {@code Thread.ofVirtual().name(name + "-", 1).factory()}, or null
+     * if virtual threads cannot be created, for example on Java 19 or 20
+     * without preview features enabled
+     */
+    private static ThreadFactory newVirtualThreadFactory(String name)
+    {
+        String method = "VirtualThreads.newVirtualThreadFactory: ";
+
+        try
+        {
+            Object builder = OF_VIRTUAL.invoke(null);
+            Class<?> builderClass = OF_VIRTUAL.getReturnType();
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            Logger.warn(method, "Virtual threads are not available, using platform threads for " + name + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Executor that starts a thread per task, with a semaphore capping the
+     * tasks running at once. Tasks waiting for a permit are parked virtual
+     * threads, which is what makes up the queue.
+     */
+    private static final class BoundedExecutor extends AbstractExecutorService
+    {
+        private final ThreadFactory factory;
+        private final Semaphore admitted;
+        private final Semaphore running;
+
+        private final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        private final AtomicInteger active = new AtomicInteger();
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition terminated = lock.newCondition();
+
+        // Guarded by lock
+        private int tasks = 0;
+        private volatile boolean shutdown = false;
+
+        BoundedExecutor(ThreadFactory factory, int concurrency, int queueCapacity)
+        {
+            this.factory = factory;
+            this.admitted = new Semaphore((queueCapacity > 0) ? concurrency + queueCapacity : Integer.MAX_VALUE);
+            this.running = new Semaphore(concurrency);
+        }
+
+        @Override
+        public void execute(Runnable command)
+        {
+            if (shutdown || !admitted.tryAcquire())
+            {
+                throw new RejectedExecutionException("Executor is shut down or its queue is full");
+            }
+
+            lock.lock();
+            try
+            {
+                tasks++;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            Thread thread = factory.newThread(() -> run(command));
+            threads.add(thread);
+            thread.start();
+        }
+
+        private void run(Runnable command)
+        {
+            try
+            {
+                running.acquire();
+                active.incrementAndGet();
+                try
+                {
+                    command.run();
+                }
+                finally
+                {
+                    active.decrementAndGet();
+                    running.release();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // Interrupted by shutdownNow while waiting to run
+            }
+            finally
+            {
+                threads.remove(Thread.currentThread());
+                admitted.release();
+
+                lock.lock();
+                try
+                {
+                    if (--tasks == 0)
+                    {
+                        terminated.signalAll();
+                    }
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+            }
+        }
+
+        int getQueueDepth()
+        {
+            lock.lock();
+            try
+            {
+                return Math.max(0, tasks - active.get());
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        int getActiveCount()
+        {
+            return active.get();
+        }
+
+        @Override
+        public void shutdown()
+        {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow()
+        {
+            shutdown = true;
+            for (Thread thread : threads)
+            {
+                thread.interrupt();
+            }
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown()
+        {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated()
+        {
+            lock.lock();
+            try
+            {
+                return shutdown && tasks == 0;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+        {
+            long remaining = unit.toNanos(timeout);
+            lock.lock();
+            try
+            {
+                while (!(shutdown && tasks == 0))
+                {
+                    if (remaining <= 0)
+                    {
+                        return false;
+                    }
+                    remaining = terminated.awaitNanos(remaining);
+                }
+                return true;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+}
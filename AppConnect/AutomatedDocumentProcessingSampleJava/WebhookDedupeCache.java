@@ -0,0 +1,184 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, TTL-based cache of webhook deliveries that have been accepted, used
+ * to answer duplicate and retried deliveries from the Content Platform Engine
+ * without processing them again.
+ * 
+ * A delivery is identified by its {@code subscriptionId}, {@code sourceObjectId},
+ * {@code eventDateTime} and {@code eventType}. {@link #claim(String)} records
+ * the first delivery of an event and reports later ones as duplicates until
+ * the entry expires after {@code DEDUPE_TTL_MS}. If processing of the first
+ * delivery fails, {@link #release(String)} removes the entry so that the next
+ * retry is processed.
+ * 
+ * The cache holds at most {@code DEDUPE_MAX_ENTRIES} entries; the oldest
+ * entries are evicted first.
+ */
+public class WebhookDedupeCache
+{
+    private static final boolean ENABLED = CSServerInfo.getBoolean("DEDUPE_ENABLED", true);
+    private static final long TTL_MS = CSServerInfo.getLong("DEDUPE_TTL_MS", 600000);
+    private static final int MAX_ENTRIES = CSServerInfo.getInt("DEDUPE_MAX_ENTRIES", 100000);
+
+    /**
+     * Cache entry, also kept in insertion order for eviction. A released entry
+     * stays in the order until it reaches the head.
+     */
+    private static final class Entry
+    {
+        final String key;
+        final long expiresAt;
+        volatile boolean released = false;
+
+        Entry(String key, long expiresAt)
+        {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private static final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<Entry>();
+    // Size of order, which ConcurrentLinkedQueue does not count in constant time
+    private static final AtomicInteger ordered = new AtomicInteger();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Returns true if duplicate deliveries are detected
+     */
+    public static boolean isEnabled()
+    {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the key identifying the delivered event
+     */
+    public static String keyOf(JSONData jsonData)
+    {
+        return jsonData.subscriptionId + '|' + jsonData.sourceObjectId + '|' + jsonData.eventDateTime + '|' + jsonData.eventType;
+    }
+
+    /**
+     * Records the delivery of an event.
+     * 
+     * @param key
+     *            key of the event, see {@link #keyOf(JSONData)}
+     * @return true if this is the first delivery of the event, false if it is
+     *         a duplicate of a delivery that is being or has been processed
+     */
+    public static boolean claim(String key)
+    {
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(key, now + TTL_MS);
+
+        Entry existing = entries.putIfAbsent(key, entry);
+        if (existing != null && (existing.expiresAt > now || !entries.replace(key, existing, entry)))
+        {
+            hits.incrementAndGet();
+            return false;
+        }
+
+        misses.incrementAndGet();
+        order.add(entry);
+        ordered.incrementAndGet();
+        evict(now);
+        return true;
+    }
+
+    /**
+     * Removes the entry of an event whose processing failed, so that the next
+     * delivery of the event is processed.
+     * 
+     * @param key
+     *            key of the event, see {@link #keyOf(JSONData)}
+     */
+    public static void release(String key)
+    {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+        {
+            // Dropped from the order by evict, which counts it against the maximum size until then
+            entry.released = true;
+        }
+    }
+
+    /**
+     * Returns the number of duplicate deliveries detected
+     */
+    public static long getHitCount()
+    {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of first deliveries recorded
+     */
+    public static long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Returns a description of the cache counters, for logging.
+     */
+    public static String getStats()
+    {
+        return "entries: " + entries.size() + ", hits: " + hits.get() + ", misses: " + misses.get() + 
+               ", evictions: " + evictions.get();
+    }
+
+    /**
+     * Removes expired and released entries, and the oldest entries while the
+     * order holds more than the maximum size.
+     */
+    private static void evict(long now)
+    {
+        Entry oldest;
+        while ((oldest = order.peek()) != null)
+        {
+            boolean expired = oldest.expiresAt <= now;
+            if (!expired && !oldest.released && ordered.get() <= MAX_ENTRIES)
+            {
+                break;
+            }
+
+            if (order.remove(oldest))
+            {
+                ordered.decrementAndGet();
+                if (entries.remove(oldest.key, oldest) && !expired)
+                {
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+package com.ibm.adp.perf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trip of the annotation query through {@code GraphQLAPIUtil} and of
+ * the annotation download through {@code HttpDownloadUtil}, against a
+ * {@link ContentServicesStandIn} in the benchmark process.
+ * 
+ * The sample reads the login settings from the environment, so run with the
+ * settings printed by {@code ContentServicesStandIn port=19080}; the stand-in
+ * accepts any credentials.
+ * 
+ * With {@code gzip} the stand-in compresses its responses; on the loopback
+ * interface this measures the cost of decompressing, not the transfer time
+ * saved.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { 
+        "-DCS_SERVER_GRAPHQL_URL=http://localhost:" + ContentServicesBenchmark.PORT + ContentServicesStandIn.GRAPHQL_PATH,
+        "-DCS_SERVER_CONTENT_DOWNLOAD_URL=http://localhost:" + ContentServicesBenchmark.PORT + "/content-services-graphql",
+        "-DANNOTATION_CACHE_ENABLED=false" })
+@State(Scope.Benchmark)
+public class ContentServicesBenchmark
+{
+    static final int PORT = 19080;
+
+    @Param({ "2", "16" })
+    int pages;
+
+    @Param({ "0", "5" })
+    long latencyMs;
+
+    @Param({ "false", "true" })
+    boolean gzip;
+
+    ContentServicesStandIn standIn;
+    String annotationId;
+
+    @Setup
+    public void setup() throws Throwable
+    {
+        ContentServicesStandIn.Settings settings = new ContentServicesStandIn.Settings();
+        settings.port = PORT;
+        settings.pages = pages;
+        settings.latencyMs = latencyMs;
+        settings.gzip = gzip;
+        standIn = new ContentServicesStandIn(settings);
+
+        String environment = standIn.getEnvironment("http://localhost:" + PORT);
+        for (String variable : environment.split("\\s+"))
+        {
+            int eq = variable.indexOf('=');
+            if (!variable.substring(eq + 1).equals(System.getenv(variable.substring(0, eq))))
+            {
+                throw new IllegalStateException("Run with " + environment);
+            }
+        }
+
+        standIn.start();
+
+        JSONObject response = getDocAnnotations();
+        annotationId = response.getJSONObject("data").getJSONObject("document").getJSONObject("annotations")
+                .getJSONArray("annotations").getJSONObject(0).getString("id");
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        standIn.stop();
+    }
+
+    @Benchmark
+    public JSONObject getDocAnnotations() throws Throwable
+    {
+        return (JSONObject) Sample.CALL_GRAPHQL_API.invokeExact(Sample.GET_DOC_ANNOTATIONS, false, 
+                new String[] { GraphQLRequestBenchmark.OBJECT_STORE_ID, GraphQLRequestBenchmark.DOCUMENT_ID });
+    }
+
+    @Benchmark
+    public JSONArray getAnnotationContent() throws Throwable
+    {
+        return (JSONArray) Sample.GET_ANNOTATION_CONTENT.invokeExact(GraphQLRequestBenchmark.OBJECT_STORE_ID, annotationId, 
+                Integer.valueOf(0), true);
+    }
+}
@@ -0,0 +1,701 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+package com.ibm.adp.perf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-in for the Content Services endpoints called by the sample, on the
+ * JDK HTTP server, for load tests and benchmarks without a Cloud Pak
+ * environment.
+ * 
+ * The server answers:
+ * <ul>
+ * <li>{@code POST /content-services-graphql/graphql}: the
+ * {@code _apiInfo} ping and the {@code document} queries, including batched
+ * lookups under the aliases {@code a0}, {@code a1}, ... and automatic
+ * persisted queries
+ * <li>{@code GET /content-services-graphql/content}: annotation content with
+ * generated KVPTables
+ * <li>{@code POST /oidc/endpoint/ums/token} and
+ * {@code POST /idprovider/v1/auth/identitytoken}: the
+ * {@code ServiceAccountUser} login, and {@code GET /v1/preauth/validateAuth}
+ * for the Zen token
+ * <li>{@code GET /stats}: request counters
+ * </ul>
+ * 
+ * GraphQL and content requests must carry a bearer token issued by the token
+ * endpoint. They are delayed by {@code latencyMs} plus up to
+ * {@code latencyJitterMs}, fail with {@code errorStatus} at
+ * {@code errorRate}, and when {@code dripBytes} is set their responses are
+ * written {@code dripBytes} at a time, {@code dripIntervalMs} apart. With
+ * {@code gzip} they are compressed for clients that accept it.
+ * 
+ * Run it with settings as {@code name=value} arguments, for example:
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar com.ibm.adp.perf.ContentServicesStandIn port=9080 latencyMs=20 errorRate=0.01 pages=4
+ * </pre>
+ */
+public final class ContentServicesStandIn
+{
+    static final String GRAPHQL_PATH = "/content-services-graphql/graphql";
+    static final String CONTENT_PATH = "/content-services-graphql/content";
+
+    private static final Pattern BATCH_ALIAS = Pattern.compile("\\b(a(\\d+))\\s*:\\s*document\\b");
+
+    static
+    {
+        // The response headers and body are separate writes; without TCP_NODELAY each response waits for a delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+        {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    /**
+     * Settings of the stand-in, read from {@code name=value} arguments
+     */
+    public static final class Settings
+    {
+        /** Port to listen on, 0 for any free port */
+        public int port = 9080;
+
+        /** Delay of each GraphQL and content response */
+        public long latencyMs = 0;
+
+        /** Additional random delay, up to this value */
+        public long latencyJitterMs = 0;
+
+        /** Fraction of GraphQL and content requests that fail */
+        public double errorRate = 0.0;
+
+        /** Status code of failed requests */
+        public int errorStatus = 503;
+
+        /** Size of the chunks of a slow drip response, 0 to send at once */
+        public int dripBytes = 0;
+
+        /** Delay between the chunks of a slow drip response */
+        public long dripIntervalMs = 0;
+
+        /** Compress GraphQL and content responses when the request accepts gzip */
+        public boolean gzip = false;
+
+        /** Annotations of each document */
+        public int annotations = 1;
+
+        /** Content elements of each annotation */
+        public int contentElements = 1;
+
+        /** Pages of each annotation content element */
+        public int pages = 2;
+
+        /** KVPTable entries of each page */
+        public int kvpEntries = 12;
+
+        /** Lifetime of issued tokens */
+        public long tokenTtlSeconds = 3600;
+
+        /**
+         * Reads settings from {@code name=value} arguments
+         * 
+         * @throws IllegalArgumentException
+         *             for an unknown setting or an invalid value
+         */
+        public static Settings parse(String... args)
+        {
+            Settings settings = new Settings();
+            for (String arg : args)
+            {
+                int eq = arg.indexOf('=');
+                if (eq < 0)
+                {
+                    throw new IllegalArgumentException("Expected name=value: " + arg);
+                }
+
+                String name = arg.substring(0, eq).trim();
+                String value = arg.substring(eq + 1).trim();
+                switch (name)
+                {
+                    case "port":
+                        settings.port = Integer.parseInt(value);
+                        break;
+                    case "latencyMs":
+                        settings.latencyMs = Long.parseLong(value);
+                        break;
+                    case "latencyJitterMs":
+                        settings.latencyJitterMs = Long.parseLong(value);
+                        break;
+                    case "errorRate":
+                        settings.errorRate = Double.parseDouble(value);
+                        break;
+                    case "errorStatus":
+                        settings.errorStatus = Integer.parseInt(value);
+                        break;
+                    case "dripBytes":
+                        settings.dripBytes = Integer.parseInt(value);
+                        break;
+                    case "dripIntervalMs":
+                        settings.dripIntervalMs = Long.parseLong(value);
+                        break;
+                    case "gzip":
+                        settings.gzip = Boolean.parseBoolean(value);
+                        break;
+                    case "annotations":
+                        settings.annotations = Integer.parseInt(value);
+                        break;
+                    case "contentElements":
+                        settings.contentElements = Integer.parseInt(value);
+                        break;
+                    case "pages":
+                        settings.pages = Integer.parseInt(value);
+                        break;
+                    case "kvpEntries":
+                        settings.kvpEntries = Integer.parseInt(value);
+                        break;
+                    case "tokenTtlSeconds":
+                        settings.tokenTtlSeconds = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown setting: " + name);
+                }
+            }
+            return settings;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "port=" + port + ", latencyMs=" + latencyMs + ", latencyJitterMs=" + latencyJitterMs + 
+                   ", errorRate=" + errorRate + ", errorStatus=" + errorStatus + 
+                   ", dripBytes=" + dripBytes + ", dripIntervalMs=" + dripIntervalMs + ", gzip=" + gzip + 
+                   ", annotations=" + annotations + ", contentElements=" + contentElements + 
+                   ", pages=" + pages + ", kvpEntries=" + kvpEntries + ", tokenTtlSeconds=" + tokenTtlSeconds;
+        }
+    }
+
+    private final Settings settings;
+    private final byte[] content;
+    private final Map<String, String> persistedQueries = new ConcurrentHashMap<String, String>();
+    private final AtomicLong tokenSequence = new AtomicLong();
+
+    private final AtomicLong graphQLRequests = new AtomicLong();
+    private final AtomicLong contentRequests = new AtomicLong();
+    private final AtomicLong tokenRequests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong unauthorized = new AtomicLong();
+    private final AtomicLong aborted = new AtomicLong();
+    private final AtomicLong compressed = new AtomicLong();
+    private final AtomicLong bodyBytes = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public ContentServicesStandIn(Settings settings)
+    {
+        this.settings = settings;
+        this.content = Payloads.annotationContent(settings.pages, settings.kvpEntries);
+    }
+
+    /**
+     * Starts listening on the configured port
+     */
+    public synchronized void start() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(settings.port), 0);
+        server.createContext(GRAPHQL_PATH, handler(this::graphQL));
+        server.createContext(CONTENT_PATH, handler(this::content));
+        server.createContext("/oidc/endpoint/ums/token", handler(this::token));
+        server.createContext("/idprovider/v1/auth/identitytoken", handler(this::token));
+        server.createContext("/v1/preauth/validateAuth", handler(this::zenToken));
+        server.createContext("/stats", handler(exchange -> respond(exchange, 200, getStats().toString().getBytes(StandardCharsets.UTF_8), false)));
+
+        // Delayed responses hold their thread, so the pool is not bounded
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "ContentServicesStandIn-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Stops the server, waiting up to a second for exchanges in progress
+     */
+    public synchronized void stop()
+    {
+        if (server != null)
+        {
+            server.stop(1);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * Returns the port the server listens on
+     */
+    public synchronized int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the environment variables, as {@code name=value} separated by
+     * spaces, with which the sample logs in to the stand-in at the given base
+     * URL
+     */
+    public String getEnvironment(String base)
+    {
+        return "ZEN_ENABLED=true IDP_SSO_URL=" + base + "/idprovider/v1/auth/identitytoken ZEN_FRONT_DOOR_URL=" + base + 
+               " CPE_CLIENT_USER=standin CPE_CLIENT_PWD=standin CPE_SERVICE_USER=standin CPE_SERVICE_PWD=standin";
+    }
+
+    /**
+     * Returns the request counters
+     */
+    public JSONObject getStats()
+    {
+        JSONObject stats = new JSONObject();
+        stats.put("graphQLRequests", graphQLRequests.get());
+        stats.put("contentRequests", contentRequests.get());
+        stats.put("tokenRequests", tokenRequests.get());
+        stats.put("injectedErrors", injectedErrors.get());
+        stats.put("unauthorized", unauthorized.get());
+        stats.put("aborted", aborted.get());
+        stats.put("compressed", compressed.get());
+        stats.put("bodyBytes", bodyBytes.get());
+        stats.put("sentBytes", sentBytes.get());
+        return stats;
+    }
+
+    private void graphQL(HttpExchange exchange) throws IOException
+    {
+        graphQLRequests.incrementAndGet();
+        JSONObject request = new JSONObject(new String(readBody(exchange), StandardCharsets.UTF_8));
+        if (!authorized(exchange) || injectFault(exchange))
+        {
+            return;
+        }
+
+        String query = request.optString("query", null);
+        JSONObject persistedQuery = request.optJSONObject("extensions") == null ? null
+                : request.getJSONObject("extensions").optJSONObject("persistedQuery");
+        if (persistedQuery != null)
+        {
+            String hash = persistedQuery.getString("sha256Hash");
+            if (query != null)
+            {
+                persistedQueries.put(hash, query);
+            }
+            else if ((query = persistedQueries.get(hash)) == null)
+            {
+                respond(exchange, 200, error("PersistedQueryNotFound"), false);
+                return;
+            }
+        }
+        if (query == null)
+        {
+            respond(exchange, 400, error("Missing query"), false);
+            return;
+        }
+
+        JSONObject variables = request.optJSONObject("variables");
+        if (variables == null)
+        {
+            variables = new JSONObject();
+        }
+
+        JSONObject data = new JSONObject();
+        Matcher aliases = BATCH_ALIAS.matcher(query);
+        if (query.contains("_apiInfo"))
+        {
+            data.put("_apiInfo", apiInfo(variables.optString("repositoryIdentifier")));
+        }
+        else if (aliases.find())
+        {
+            do
+            {
+                data.put(aliases.group(1), document(variables.optString("identifier_" + aliases.group(2))));
+            }
+            while (aliases.find());
+        }
+        else if (query.contains("document"))
+        {
+            data.put("document", document(variables.optString("identifier")));
+        }
+        else
+        {
+            respond(exchange, 200, error("Unsupported query"), false);
+            return;
+        }
+
+        respond(exchange, 200, new JSONObject().put("data", data).toString().getBytes(StandardCharsets.UTF_8), true);
+    }
+
+    private void content(HttpExchange exchange) throws IOException
+    {
+        contentRequests.incrementAndGet();
+        readBody(exchange);
+        if (!authorized(exchange) || injectFault(exchange))
+        {
+            return;
+        }
+
+        Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+        if (!parameters.containsKey("repositoryIdentifier") || !parameters.containsKey("annotationId"))
+        {
+            respond(exchange, 400, error("repositoryIdentifier and annotationId are required"), false);
+            return;
+        }
+
+        respond(exchange, 200, content, true);
+    }
+
+    private void token(HttpExchange exchange) throws IOException
+    {
+        tokenRequests.incrementAndGet();
+        readBody(exchange);
+
+        JSONObject token = new JSONObject();
+        token.put("access_token", "standin-" + tokenSequence.incrementAndGet());
+        token.put("token_type", "Bearer");
+        token.put("expires_in", settings.tokenTtlSeconds);
+        token.put("scope", "openid");
+        respond(exchange, 200, token.toString().getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    private void zenToken(HttpExchange exchange) throws IOException
+    {
+        tokenRequests.incrementAndGet();
+        readBody(exchange);
+
+        JSONObject token = new JSONObject();
+        token.put("accessToken", "standin-" + tokenSequence.incrementAndGet());
+        respond(exchange, 200, token.toString().getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    private JSONObject apiInfo(String repositoryIdentifier)
+    {
+        JSONObject cpeInfo = new JSONObject();
+        cpeInfo.put("cpeURL", "http://localhost/wsi/FNCEWS40MTOM");
+        cpeInfo.put("cpeUser", "standin");
+        cpeInfo.put("repositoryName", repositoryIdentifier);
+
+        JSONObject apiInfo = new JSONObject();
+        apiInfo.put("buildDate", "2022-12-03");
+        apiInfo.put("buildNumber", "standin");
+        apiInfo.put("implementationVersion", "standin");
+        apiInfo.put("implementationTitle", "Content Services stand-in");
+        apiInfo.put("productVersion", "5.5.10");
+        apiInfo.put("cpeInfo", cpeInfo);
+        return apiInfo;
+    }
+
+    private JSONObject document(String identifier)
+    {
+        JSONArray annotations = new JSONArray();
+        for (int a = 0; a < settings.annotations; a++)
+        {
+            String annotationId = "{" + UUID.nameUUIDFromBytes((identifier + "/" + a).getBytes(StandardCharsets.UTF_8))
+                    .toString().toUpperCase() + "}";
+
+            JSONArray elements = new JSONArray();
+            for (int e = 0; e < settings.contentElements; e++)
+            {
+                JSONObject element = new JSONObject();
+                element.put("elementSequenceNumber", e);
+                element.put("retrievalName", "kvp-" + e + ".json");
+                element.put("downloadUrl", CONTENT_PATH + "?annotationId=" + annotationId + "&elementSequenceNumber=" + e);
+                elements.put(element);
+            }
+
+            JSONObject annotation = new JSONObject();
+            annotation.put("id", annotationId);
+            annotation.put("contentSize", content.length);
+            annotation.put("contentElements", elements);
+            annotations.put(annotation);
+        }
+
+        JSONObject document = new JSONObject();
+        document.put("className", "Document");
+        document.put("id", identifier);
+        document.put("name", "Stand-in document");
+        document.put("mimeType", "application/pdf");
+        document.put("creator", "standin");
+        document.put("owner", "standin");
+        document.put("dateCreated", "2022-12-03T12:00:00.000Z");
+        document.put("isReserved", false);
+        document.put("properties", new JSONArray());
+        document.put("annotations", new JSONObject().put("annotations", annotations));
+        return document;
+    }
+
+    /**
+     * Answers 401 unless the request has a bearer token issued by this server
+     */
+    private boolean authorized(HttpExchange exchange) throws IOException
+    {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization != null && authorization.startsWith("Bearer standin-"))
+        {
+            return true;
+        }
+
+        unauthorized.incrementAndGet();
+        respond(exchange, 401, error("Missing or unknown bearer token"), false);
+        return false;
+    }
+
+    /**
+     * Delays the request, and answers it with the error status if it is
+     * chosen to fail
+     */
+    private boolean injectFault(HttpExchange exchange) throws IOException
+    {
+        long delay = settings.latencyMs + (settings.latencyJitterMs > 0 ? ThreadLocalRandom.current().nextLong(settings.latencyJitterMs + 1) : 0);
+        sleep(delay);
+
+        if (settings.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < settings.errorRate)
+        {
+            injectedErrors.incrementAndGet();
+            respond(exchange, settings.errorStatus, error("Injected failure"), false);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sends the response; GraphQL and content responses are compressed when
+     * gzip is configured, and sent a chunk at a time when slow drip is
+     */
+    private void respond(HttpExchange exchange, int status, byte[] body, boolean drip) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+
+        if (drip)
+        {
+            bodyBytes.addAndGet(body.length);
+            if (settings.gzip && acceptsGzip(exchange))
+            {
+                body = gzip(body);
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                compressed.incrementAndGet();
+            }
+            sentBytes.addAndGet(body.length);
+        }
+
+        if (drip && settings.dripBytes > 0)
+        {
+            exchange.sendResponseHeaders(status, 0);
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                for (int offset = 0; offset < body.length; offset += settings.dripBytes)
+                {
+                    if (offset > 0)
+                    {
+                        sleep(settings.dripIntervalMs);
+                    }
+                    out.write(body, offset, Math.min(settings.dripBytes, body.length - offset));
+                    out.flush();
+                }
+            }
+            return;
+        }
+
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+
+    private static boolean acceptsGzip(HttpExchange exchange)
+    {
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accept == null)
+        {
+            return false;
+        }
+        for (String coding : accept.split(","))
+        {
+            String name = coding.trim();
+            int semicolon = name.indexOf(';');
+            if (semicolon >= 0)
+            {
+                // gzip;q=0 refuses it
+                if (name.substring(semicolon).replace(" ", "").matches(";q=0(\\.0*)?"))
+                {
+                    continue;
+                }
+                name = name.substring(0, semicolon).trim();
+            }
+            if (name.equalsIgnoreCase("gzip") || name.equals("*"))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes))
+        {
+            out.write(body);
+        }
+        return bytes.toByteArray();
+    }
+
+    private HttpHandler handler(HttpHandler handler)
+    {
+        return exchange -> {
+            try
+            {
+                handler.handle(exchange);
+            }
+            catch (IOException e)
+            {
+                // The client closed the connection, as the streaming download does after the first KVPTable
+                aborted.incrementAndGet();
+            }
+            catch (RuntimeException e)
+            {
+                respond(exchange, 500, error(String.valueOf(e.getMessage())), false);
+            }
+            finally
+            {
+                exchange.close();
+            }
+        };
+    }
+
+    private static byte[] error(String message)
+    {
+        JSONObject error = new JSONObject().put("message", message);
+        return new JSONObject().put("errors", new JSONArray().put(error)).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody())
+        {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0)
+            {
+                body.write(buffer, 0, read);
+            }
+        }
+        return body.toByteArray();
+    }
+
+    private static Map<String, String> parameters(String query) throws IOException
+    {
+        Map<String, String> parameters = new HashMap<String, String>();
+        if (query == null)
+        {
+            return parameters;
+        }
+
+        for (String pair : query.split("&"))
+        {
+            int eq = pair.indexOf('=');
+            if (eq > 0)
+            {
+                parameters.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static void sleep(long millis)
+    {
+        if (millis <= 0)
+        {
+            return;
+        }
+
+        try
+        {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs the stand-in until the process is stopped
+     */
+    public static void main(String[] args) throws IOException
+    {
+        ContentServicesStandIn standIn = new ContentServicesStandIn(Settings.parse(args));
+        standIn.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            standIn.stop();
+            System.out.println("Stopped, " + standIn.getStats());
+        }));
+
+        String base = "http://localhost:" + standIn.getPort();
+        System.out.println("Content Services stand-in listening on " + base + ", " + standIn.settings);
+        System.out.println("CSServerInfo.properties, or -D options of the integration server:");
+        System.out.println("  CS_SERVER_GRAPHQL_URL = " + base + GRAPHQL_PATH);
+        System.out.println("  CS_SERVER_CONTENT_DOWNLOAD_URL = " + base + CONTENT_PATH.substring(0, CONTENT_PATH.lastIndexOf('/')));
+        System.out.println("Environment of the integration server:");
+        System.out.println("  " + standIn.getEnvironment(base));
+    }
+}
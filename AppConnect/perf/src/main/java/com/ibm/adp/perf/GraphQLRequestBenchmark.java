@@ -0,0 +1,97 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+package com.ibm.adp.perf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building of the GraphQL request bodies from the compiled
+ * {@code GraphQLCallTemplate} queries: the annotation query as sent by the
+ * flow (pruned), in full, as a persisted query hash, and as a batch of 25
+ * aliased lookups.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class GraphQLRequestBenchmark
+{
+    static final String OBJECT_STORE_ID = "{2A3B4C5D-0000-C217-9D5C-2B3E4F5A6B7C}";
+    static final String DOCUMENT_ID = "{60C7A282-0000-C31B-A1F4-5E6A8B9C0D1E}";
+
+    Object pruned;
+    Object batched;
+    String[] batchValues;
+
+    @Setup
+    public void setup() throws Throwable
+    {
+        // As pruned by Finalization_JavaCompute
+        pruned = Sample.QUERY_WITHOUT.invokeExact(Sample.GET_DOC_ANNOTATIONS, 
+                new String[] { "className", "name", "mimeType", "creator", "owner", "dateCreated", "isReserved", "contentSize" });
+
+        batched = Sample.QUERY_BATCHED.invokeExact(pruned, 25, "repositoryIdentifier");
+        batchValues = new String[26];
+        batchValues[0] = OBJECT_STORE_ID;
+        for (int i = 1; i < batchValues.length; i++)
+        {
+            batchValues[i] = DOCUMENT_ID.substring(0, 30) + String.format("%07X}", i);
+        }
+    }
+
+    @Benchmark
+    public byte[] annotationsQuery() throws Throwable
+    {
+        return (byte[]) Sample.QUERY_TO_BYTES.invokeExact(pruned, false, new String[] { OBJECT_STORE_ID, DOCUMENT_ID });
+    }
+
+    @Benchmark
+    public byte[] annotationsQueryFull() throws Throwable
+    {
+        return (byte[]) Sample.QUERY_TO_BYTES.invokeExact(Sample.GET_DOC_ANNOTATIONS, false, new String[] { OBJECT_STORE_ID, DOCUMENT_ID });
+    }
+
+    @Benchmark
+    public byte[] annotationsQueryHashOnly() throws Throwable
+    {
+        return (byte[]) Sample.QUERY_TO_BYTES.invokeExact(pruned, true, new String[] { OBJECT_STORE_ID, DOCUMENT_ID });
+    }
+
+    @Benchmark
+    public byte[] annotationsBatch25() throws Throwable
+    {
+        return (byte[]) Sample.QUERY_TO_BYTES.invokeExact(batched, false, batchValues);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+package com.ibm.adp.perf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HMAC verification of the webhook body, across body sizes.
+ * 
+ * {@code verifyHMACHeader} is the per-event check; {@code calculateHMAC}
+ * computes the signature with the configured secret, and
+ * {@code calculateHMACWithKey} is the String form used by tools.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HMACBenchmark
+{
+    @Param({ "712", "16384", "262144" })
+    int payloadBytes;
+
+    byte[] body;
+    String bodyText;
+    String header;
+
+    @Setup
+    public void setup() throws Throwable
+    {
+        body = Payloads.webhookEvent(payloadBytes);
+        bodyText = new String(body, StandardCharsets.UTF_8);
+        header = (String) Sample.CALCULATE_HMAC.invokeExact(body);
+
+        if (!(boolean) Sample.VERIFY_HMAC_HEADER.invokeExact(header, body))
+        {
+            throw new IllegalStateException("HMAC of the sample payload does not verify");
+        }
+    }
+
+    @Benchmark
+    public boolean verifyHMACHeader() throws Throwable
+    {
+        return (boolean) Sample.VERIFY_HMAC_HEADER.invokeExact(header, body);
+    }
+
+    @Benchmark
+    public String calculateHMAC() throws Throwable
+    {
+        return (String) Sample.CALCULATE_HMAC.invokeExact(body);
+    }
+
+    @Benchmark
+    public String calculateHMACWithKey() throws Throwable
+    {
+        return (String) Sample.CALCULATE_HMAC_WITH_KEY.invokeExact(bodyText, Sample.HMAC_CREDENTIAL_SECRET);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+package com.ibm.adp.perf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Synthetic sample payloads, in {@code payloads/}, that follow the format of
+ * the Content Services responses for a processed document, and larger
+ * payloads of a given size built from them.
+ */
+final class Payloads
+{
+    /** Webhook event body delivered by the Content Platform Engine */
+    static final String WEBHOOK_EVENT = read("webhook-event.json");
+
+    /** GET_DOC_ANNOTATIONS response for a document with three annotations */
+    static final String ANNOTATIONS_RESPONSE = read("annotations-response.json");
+
+    /** Annotation content of a two page document, with a KVPTable per page */
+    static final String ANNOTATION_CONTENT = read("annotation-content.json");
+
+    private Payloads()
+    {
+    }
+
+    /**
+     * Returns the webhook event padded with additional document properties to
+     * at least the given size, as the event of a document class with many
+     * properties would be
+     */
+    static byte[] webhookEvent(int size)
+    {
+        String event = WEBHOOK_EVENT.trim();
+        StringBuilder sb = new StringBuilder(size + 64);
+
+        // Insert properties at the end of the "properties" object
+        sb.append(event, 0, event.length() - 2);
+        for (int i = 0; sb.length() + 2 < size; i++)
+        {
+            sb.append(",\"CustomProperty").append(i).append("\":{\"value\":\"Value of custom property ").append(i).append("\"}");
+        }
+        sb.append("}}");
+
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns annotation content with the sample pages repeated until it
+     * reaches at least the given size
+     */
+    static byte[] annotationContent(int size)
+    {
+        JSONObject content = new JSONObject(ANNOTATION_CONTENT);
+        JSONObject data = content.getJSONArray("result").getJSONObject(0).getJSONObject("data");
+        JSONArray sample = data.getJSONArray("pageList");
+
+        JSONArray pages = new JSONArray();
+        data.put("pageList", pages);
+        int pageSize = sample.toString().length() / sample.length();
+        for (int i = 0; i == 0 || i * pageSize < size; i++)
+        {
+            JSONObject page = new JSONObject(sample.getJSONObject(i % sample.length()).toString());
+            page.put("pageNumber", i + 1);
+            pages.put(page);
+        }
+
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns annotation content with the given number of pages, each with a
+     * KVPTable of the given number of entries, from the sample pages
+     */
+    static byte[] annotationContent(int pageCount, int entriesPerPage)
+    {
+        JSONObject content = new JSONObject(ANNOTATION_CONTENT);
+        JSONObject data = content.getJSONArray("result").getJSONObject(0).getJSONObject("data");
+        JSONArray sample = data.getJSONArray("pageList");
+
+        JSONArray pages = new JSONArray();
+        data.put("pageList", pages);
+        for (int i = 0; i < pageCount; i++)
+        {
+            JSONObject page = new JSONObject(sample.getJSONObject(i % sample.length()).toString());
+            JSONArray table = kvpTable(entriesPerPage);
+            for (int j = 0; j < table.length(); j++)
+            {
+                table.getJSONObject(j).put("PageNumber", i + 1);
+            }
+            page.put("pageNumber", i + 1);
+            page.put("KVPTable", table);
+            pages.put(page);
+        }
+
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a KVPTable with the given number of entries, from the sample
+     * pages
+     */
+    static JSONArray kvpTable(int entries)
+    {
+        JSONArray sample = new JSONArray();
+        JSONArray pages = new JSONObject(ANNOTATION_CONTENT).getJSONArray("result").getJSONObject(0)
+                .getJSONObject("data").getJSONArray("pageList");
+        for (int i = 0; i < pages.length(); i++)
+        {
+            JSONArray table = pages.getJSONObject(i).getJSONArray("KVPTable");
+            for (int j = 0; j < table.length(); j++)
+            {
+                sample.put(table.get(j));
+            }
+        }
+
+        JSONArray table = new JSONArray();
+        for (int i = 0; i < entries; i++)
+        {
+            table.put(new JSONObject(sample.getJSONObject(i % sample.length()).toString()));
+        }
+        return table;
+    }
+
+    private static String read(String name)
+    {
+        try (InputStream in = Payloads.class.getResourceAsStream("/payloads/" + name))
+        {
+            if (in == null)
+            {
+                throw new IllegalStateException("Missing payload " + name);
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0)
+            {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Failure reading payload " + name, e);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+package com.ibm.adp.perf;
+
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Handles on the sample classes measured by the benchmarks.
+ * 
+ * The sample is in the default package, which classes in a named package
+ * (JMH requires one for benchmarks) cannot refer to, and several of the
+ * measured methods are package-private. The methods are therefore bound once
+ * through reflection into constant method handles, which the JIT compiler
+ * inlines like a direct call. Sample types in the signatures are replaced by
+ * {@code Object}.
+ */
+final class Sample
+{
+    static final MethodHandle VERIFY_HMAC_HEADER = 
+            method("HMACAuthentication", "verifyHMACHeader", String.class, byte[].class);
+
+    static final MethodHandle CALCULATE_HMAC = 
+            method("HMACAuthentication", "calculateHMAC", byte[].class);
+
+    static final MethodHandle CALCULATE_HMAC_WITH_KEY = 
+            method("HMACAuthentication", "calculateHMAC", String.class, String.class);
+
+    static final MethodHandle PARSE_ANNOTATION_REFS = 
+            method("AnnotationFanOut", "parseAnnotationRefs", JSONObject.class);
+
+    static final MethodHandle READ_KVP_TABLE = 
+            method("HttpDownloadUtil", "readKVPTable", InputStream.class, boolean.class);
+
+    static final MethodHandle READ_KVP_TABLE_STREAMING = 
+            method("HttpDownloadUtil", "readKVPTableStreaming", InputStream.class, boolean.class);
+
+    static final MethodHandle FORMAT_KVP_RESULTS = 
+            method("KVPResultWriter", "formatKVPResults", JSONArray.class, String.class);
+
+    static final MethodHandle QUERY_TO_BYTES = 
+            method("GraphQLQuery", "toBytes", boolean.class, String[].class);
+
+    static final MethodHandle QUERY_WITHOUT = 
+            method("GraphQLQuery", "without", String[].class);
+
+    static final MethodHandle QUERY_BATCHED = 
+            method("GraphQLQuery", "batched", int.class, String.class);
+
+    static final MethodHandle GET_ANNOTATION_CONTENT = 
+            method("HttpDownloadUtil", "getAnnotationContent", String.class, String.class, Integer.class, boolean.class);
+
+    static final MethodHandle CALL_GRAPHQL_API = 
+            method("GraphQLAPIUtil", "callGraphQLAPI", sampleClass("GraphQLQuery"), boolean.class, String[].class);
+
+    static final String HMAC_CREDENTIAL_SECRET = (String) field("Constants", "HMAC_CREDENTIAL_SECRET");
+
+    /** GraphQLQuery compiled from the GET_DOC_ANNOTATIONS template */
+    static final Object GET_DOC_ANNOTATIONS = field("GraphQLCallTemplate", "GET_DOC_ANNOTATIONS");
+
+    private Sample()
+    {
+    }
+
+    private static MethodHandle method(String className, String name, Class<?>... parameterTypes)
+    {
+        try
+        {
+            Method method = Class.forName(className).getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflect(method);
+            return handle.asType(erase(handle.type()));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Sample method " + className + "." + name + " not found", e);
+        }
+    }
+
+    private static Object field(String className, String name)
+    {
+        try
+        {
+            Field field = Class.forName(className).getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Sample field " + className + "." + name + " not found", e);
+        }
+    }
+
+    private static Class<?> sampleClass(String className)
+    {
+        try
+        {
+            return Class.forName(className);
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IllegalStateException("Sample class " + className + " not found", e);
+        }
+    }
+
+    /**
+     * Replaces the default package classes of a method type by Object
+     */
+    private static MethodType erase(MethodType type)
+    {
+        MethodType erased = type.changeReturnType(erase(type.returnType()));
+        for (int i = 0; i < type.parameterCount(); i++)
+        {
+            erased = erased.changeParameterType(i, erase(type.parameterType(i)));
+        }
+        return erased;
+    }
+
+    private static Class<?> erase(Class<?> type)
+    {
+        return (!type.isPrimitive() && !type.isArray() && type.getName().indexOf('.') < 0) ? Object.class : type;
+    }
+}
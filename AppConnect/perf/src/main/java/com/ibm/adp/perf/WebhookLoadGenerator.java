@@ -0,0 +1,600 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+package com.ibm.adp.perf;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Load generator for the webhook flow. It sends {@code WebhookData} events,
+ * as described in {@code swagger.json}, signed in the {@code hmac} header with
+ * the HmacSHA1 scheme of {@code HMACAuthentication}.
+ * 
+ * With {@code rate} set, events arrive at the given rate whether or not
+ * earlier events have been answered (open model), uniformly spaced or with
+ * {@code arrivals=poisson}. The response time of each event is measured from
+ * the time it was due to be sent, not from the time it was sent, so that a
+ * stalled flow is charged for the events that queued up behind it rather
+ * than hiding them (coordinated omission). The service time, from the actual
+ * send, is reported alongside. With {@code concurrency} set instead, that many
+ * senders each send the next event when the previous one is answered (closed
+ * model).
+ * 
+ * On top of the steady rate, {@code burstSize} events arrive every
+ * {@code burstIntervalMs}, spread over {@code burstSpreadMs}, as when a batch
+ * of documents completes processing. A fraction {@code duplicateRatio} of
+ * the sends deliver again one of the last {@code duplicateWindow} events, and
+ * a fraction {@code replayRatio} one of the last {@code replayWindow} events,
+ * with the same body and signature.
+ * 
+ * Run it with settings as {@code name=value} arguments, for example:
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar com.ibm.adp.perf.WebhookLoadGenerator rate=100 durationSeconds=120 burstSize=500 burstIntervalMs=30000 duplicateRatio=0.05
+ * </pre>
+ */
+public final class WebhookLoadGenerator
+{
+    private static final String SAMPLE_DOCUMENT_ID = "{60C7A282-0000-C31B-A1F4-5E6A8B9C0D1E}";
+    private static final String SAMPLE_OBJECT_STORE_ID = "{2A3B4C5D-0000-C217-9D5C-2B3E4F5A6B7C}";
+    private static final String SAMPLE_EVENT_DATE_TIME = "2022-11-14T17:42:31.517Z";
+
+    /**
+     * Settings of the load generator, read from {@code name=value} arguments
+     */
+    public static final class Settings
+    {
+        /** URL of the finalization operation of the flow */
+        public String url = "http://localhost:7800/AutomatedDocumentProcessingSample/v1/finalization";
+
+        /** HMAC secret of the event action */
+        public String secret = Sample.HMAC_CREDENTIAL_SECRET;
+
+        /** Object store of the events */
+        public String objectStoreId = SAMPLE_OBJECT_STORE_ID;
+
+        /** Steady arrival rate in events per second, open model */
+        public double rate = 0;
+
+        /** Arrival process of the steady rate, uniform or poisson */
+        public String arrivals = "uniform";
+
+        /** Senders of the closed model; when set, rate and bursts are ignored */
+        public int concurrency = 0;
+
+        /** Most requests in flight in the open model */
+        public int maxInFlight = 256;
+
+        /** Events of each burst */
+        public int burstSize = 0;
+
+        /** Time between the starts of bursts */
+        public long burstIntervalMs = 60000;
+
+        /** Time over which the events of a burst arrive, 0 for all at once */
+        public long burstSpreadMs = 0;
+
+        /** Fraction of sends that deliver a recent event again */
+        public double duplicateRatio = 0;
+
+        /** Recent events that a duplicate is chosen from */
+        public int duplicateWindow = 16;
+
+        /** Fraction of sends that replay an older event */
+        public double replayRatio = 0;
+
+        /** Events that a replay is chosen from */
+        public int replayWindow = 10000;
+
+        /** Time before measurement starts */
+        public long warmupSeconds = 10;
+
+        /** Time measured */
+        public long durationSeconds = 60;
+
+        /** Time between progress lines, 0 for none */
+        public long reportIntervalSeconds = 10;
+
+        /** Connect and response timeout of each request */
+        public long timeoutMs = 30000;
+
+        /**
+         * Reads settings from {@code name=value} arguments
+         * 
+         * @throws IllegalArgumentException
+         *             for an unknown setting or an invalid value
+         */
+        public static Settings parse(String... args)
+        {
+            Settings settings = new Settings();
+            for (String arg : args)
+            {
+                int eq = arg.indexOf('=');
+                if (eq < 0)
+                {
+                    throw new IllegalArgumentException("Expected name=value: " + arg);
+                }
+
+                String name = arg.substring(0, eq).trim();
+                String value = arg.substring(eq + 1).trim();
+                switch (name)
+                {
+                    case "url":
+                        settings.url = value;
+                        break;
+                    case "secret":
+                        settings.secret = value;
+                        break;
+                    case "objectStoreId":
+                        settings.objectStoreId = value;
+                        break;
+                    case "rate":
+                        settings.rate = Double.parseDouble(value);
+                        break;
+                    case "arrivals":
+                        settings.arrivals = value;
+                        break;
+                    case "concurrency":
+                        settings.concurrency = Integer.parseInt(value);
+                        break;
+                    case "maxInFlight":
+                        settings.maxInFlight = Integer.parseInt(value);
+                        break;
+                    case "burstSize":
+                        settings.burstSize = Integer.parseInt(value);
+                        break;
+                    case "burstIntervalMs":
+                        settings.burstIntervalMs = Long.parseLong(value);
+                        break;
+                    case "burstSpreadMs":
+                        settings.burstSpreadMs = Long.parseLong(value);
+                        break;
+                    case "duplicateRatio":
+                        settings.duplicateRatio = Double.parseDouble(value);
+                        break;
+                    case "duplicateWindow":
+                        settings.duplicateWindow = Integer.parseInt(value);
+                        break;
+                    case "replayRatio":
+                        settings.replayRatio = Double.parseDouble(value);
+                        break;
+                    case "replayWindow":
+                        settings.replayWindow = Integer.parseInt(value);
+                        break;
+                    case "warmupSeconds":
+                        settings.warmupSeconds = Long.parseLong(value);
+                        break;
+                    case "durationSeconds":
+                        settings.durationSeconds = Long.parseLong(value);
+                        break;
+                    case "reportIntervalSeconds":
+                        settings.reportIntervalSeconds = Long.parseLong(value);
+                        break;
+                    case "timeoutMs":
+                        settings.timeoutMs = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown setting: " + name);
+                }
+            }
+
+            if (settings.concurrency <= 0 && settings.rate <= 0 && settings.burstSize <= 0)
+            {
+                throw new IllegalArgumentException("Set rate, burstSize or concurrency");
+            }
+            if (!"uniform".equals(settings.arrivals) && !"poisson".equals(settings.arrivals))
+            {
+                throw new IllegalArgumentException("arrivals must be uniform or poisson: " + settings.arrivals);
+            }
+            return settings;
+        }
+
+        @Override
+        public String toString()
+        {
+            String model = concurrency > 0 ? "concurrency=" + concurrency
+                    : "rate=" + rate + ", arrivals=" + arrivals + ", maxInFlight=" + maxInFlight + 
+                      ", burstSize=" + burstSize + ", burstIntervalMs=" + burstIntervalMs + ", burstSpreadMs=" + burstSpreadMs;
+            return "url=" + url + ", " + model + 
+                   ", duplicateRatio=" + duplicateRatio + ", duplicateWindow=" + duplicateWindow + 
+                   ", replayRatio=" + replayRatio + ", replayWindow=" + replayWindow + 
+                   ", warmupSeconds=" + warmupSeconds + ", durationSeconds=" + durationSeconds;
+        }
+    }
+
+    /**
+     * A signed event, kept to be delivered again
+     */
+    private static final class Event
+    {
+        final byte[] body;
+        final String hmac;
+        final String md5;
+
+        Event(byte[] body, String hmac, String md5)
+        {
+            this.body = body;
+            this.hmac = hmac;
+            this.md5 = md5;
+        }
+    }
+
+    private final Settings settings;
+    private final PrintStream out;
+    private final String template;
+    private final CloseableHttpClient client;
+
+    private final AtomicReferenceArray<Event> history;
+    private final AtomicLong created = new AtomicLong();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder replays = new LongAdder();
+
+    private final Recorder responseTime = new Recorder(3);
+    private final Recorder serviceTime = new Recorder(3);
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<String, LongAdder>();
+    private final AtomicInteger maxQueued = new AtomicInteger();
+
+    private volatile long measureFrom;
+
+    public WebhookLoadGenerator(Settings settings, PrintStream out)
+    {
+        this.settings = settings;
+        this.out = out;
+        this.template = Payloads.WEBHOOK_EVENT.trim().replace(SAMPLE_OBJECT_STORE_ID, settings.objectStoreId);
+        this.history = new AtomicReferenceArray<Event>(Math.max(1, Math.max(settings.duplicateWindow, settings.replayWindow)));
+
+        int connections = settings.concurrency > 0 ? settings.concurrency : settings.maxInFlight;
+        PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+        pool.setMaxTotal(connections);
+        pool.setDefaultMaxPerRoute(connections);
+
+        // Check connections idle for a while, which the flow may have closed, so that they do not fail the next event
+        pool.setValidateAfterInactivity(1000);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout((int) settings.timeoutMs)
+                .setSocketTimeout((int) settings.timeoutMs)
+                .setConnectionRequestTimeout((int) settings.timeoutMs)
+                .build();
+
+        this.client = HttpClients.custom().setConnectionManager(pool).setDefaultRequestConfig(requestConfig).build();
+    }
+
+    /**
+     * Runs the warmup and the measurement, then prints the report
+     */
+    public void run() throws InterruptedException, IOException
+    {
+        out.println("Sending to " + settings);
+
+        long start = System.nanoTime();
+        measureFrom = start + TimeUnit.SECONDS.toNanos(settings.warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(settings.durationSeconds);
+
+        Histogram totalResponse = new Histogram(3);
+        Histogram totalService = new Histogram(3);
+        Thread reporter = new Thread(() -> report(start, end, totalResponse, totalService), "WebhookLoadGenerator-report");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        try
+        {
+            if (settings.concurrency > 0)
+            {
+                runClosed(end);
+            }
+            else
+            {
+                runOpen(start, end);
+            }
+        }
+        finally
+        {
+            reporter.interrupt();
+            reporter.join();
+            client.close();
+        }
+
+        printSummary(totalResponse, totalService);
+    }
+
+    /**
+     * Sends events at the arrival times of the steady rate and the bursts,
+     * on up to maxInFlight threads
+     */
+    private void runOpen(long start, long end) throws InterruptedException
+    {
+        AtomicInteger threads = new AtomicInteger();
+        ThreadPoolExecutor senders = new ThreadPoolExecutor(settings.maxInFlight, settings.maxInFlight, 
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+                    Thread t = new Thread(r, "WebhookLoadGenerator-" + threads.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+
+        long steadyNext = settings.rate > 0 ? start : Long.MAX_VALUE;
+        long burstStart = settings.burstSize > 0 ? start + TimeUnit.MILLISECONDS.toNanos(settings.burstIntervalMs) : Long.MAX_VALUE;
+        int burstIndex = 0;
+
+        while (true)
+        {
+            long burstNext = burstStart == Long.MAX_VALUE ? Long.MAX_VALUE
+                    : burstStart + TimeUnit.MILLISECONDS.toNanos(settings.burstSpreadMs) * burstIndex / settings.burstSize;
+            long intended = Math.min(steadyNext, burstNext);
+            if (intended >= end)
+            {
+                break;
+            }
+
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0)
+            {
+                LockSupport.parkNanos(wait);
+            }
+
+            senders.execute(() -> send(intended));
+            maxQueued.accumulateAndGet(senders.getQueue().size(), Math::max);
+
+            if (intended == steadyNext)
+            {
+                double interval = 1.0 / settings.rate;
+                if ("poisson".equals(settings.arrivals))
+                {
+                    interval = -Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) / settings.rate;
+                }
+                steadyNext += (long) (interval * 1e9);
+            }
+            else if (++burstIndex == settings.burstSize)
+            {
+                burstIndex = 0;
+                burstStart += TimeUnit.MILLISECONDS.toNanos(settings.burstIntervalMs);
+            }
+        }
+
+        senders.shutdown();
+        if (!senders.awaitTermination(settings.timeoutMs * 2, TimeUnit.MILLISECONDS))
+        {
+            out.println("Abandoned " + senders.shutdownNow().size() + " events not sent at the end of the run");
+        }
+    }
+
+    /**
+     * Sends events from the given number of senders, each waiting for the
+     * response before sending the next event
+     */
+    private void runClosed(long end) throws InterruptedException
+    {
+        Thread[] senders = new Thread[settings.concurrency];
+        for (int i = 0; i < senders.length; i++)
+        {
+            senders[i] = new Thread(() -> {
+                long intended;
+                while ((intended = System.nanoTime()) < end)
+                {
+                    send(intended);
+                }
+            }, "WebhookLoadGenerator-" + (i + 1));
+            senders[i].setDaemon(true);
+            senders[i].start();
+        }
+
+        for (Thread sender : senders)
+        {
+            sender.join();
+        }
+    }
+
+    private void send(long intended)
+    {
+        Event event = nextEvent();
+
+        HttpPost post = new HttpPost(settings.url);
+        post.setHeader("hmac", event.hmac);
+        post.setHeader("md5", event.md5);
+        post.setEntity(new ByteArrayEntity(event.body, ContentType.APPLICATION_JSON));
+
+        long sent = System.nanoTime();
+        String outcome;
+        try (CloseableHttpResponse response = client.execute(post))
+        {
+            outcome = String.valueOf(response.getStatusLine().getStatusCode());
+            EntityUtils.consume(response.getEntity());
+        }
+        catch (IOException e)
+        {
+            outcome = e.getClass().getSimpleName();
+        }
+        long done = System.nanoTime();
+
+        if (intended >= measureFrom)
+        {
+            responseTime.recordValue(TimeUnit.NANOSECONDS.toMicros(done - intended));
+            serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(done - sent));
+            outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * Returns a new event, or one sent before as a duplicate or replay
+     */
+    private Event nextEvent()
+    {
+        long count = created.get();
+        double r = ThreadLocalRandom.current().nextDouble();
+
+        if (count > 0 && r < settings.duplicateRatio + settings.replayRatio)
+        {
+            boolean duplicate = r < settings.duplicateRatio;
+            int window = (int) Math.min(Math.min(count, history.length()), duplicate ? settings.duplicateWindow : settings.replayWindow);
+            Event event = history.get((int) ((count - 1 - ThreadLocalRandom.current().nextInt(window)) % history.length()));
+            if (event != null)
+            {
+                (duplicate ? duplicates : replays).increment();
+                return event;
+            }
+        }
+
+        String documentId = "{" + UUID.randomUUID().toString().toUpperCase() + "}";
+        String json = template.replace(SAMPLE_DOCUMENT_ID, documentId)
+                .replace(SAMPLE_EVENT_DATE_TIME, Instant.now().toString());
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+
+        Event event = new Event(body, sign(json), md5(body));
+        history.set((int) (created.getAndIncrement() % history.length()), event);
+        return event;
+    }
+
+    private String sign(String json)
+    {
+        try
+        {
+            return (String) Sample.CALCULATE_HMAC_WITH_KEY.invokeExact(json, settings.secret);
+        }
+        catch (Throwable e)
+        {
+            throw new IllegalStateException("Unable to sign the event", e);
+        }
+    }
+
+    private static String md5(byte[] body)
+    {
+        try
+        {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(body));
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Prints a progress line every reportIntervalSeconds and collects the
+     * interval histograms into the totals
+     */
+    private void report(long start, long end, Histogram totalResponse, Histogram totalService)
+    {
+        long interval = TimeUnit.SECONDS.toNanos(Math.max(1, settings.reportIntervalSeconds));
+        Histogram response = null;
+        Histogram service = null;
+
+        for (long next = start + interval; ; next += interval)
+        {
+            boolean last = false;
+            long wait;
+            while (!last && (wait = next - System.nanoTime()) > 0)
+            {
+                LockSupport.parkNanos(wait);
+                last = Thread.interrupted();
+            }
+
+            response = responseTime.getIntervalHistogram(response);
+            service = serviceTime.getIntervalHistogram(service);
+            totalResponse.add(response);
+            totalService.add(service);
+
+            long elapsed = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start);
+            if (settings.reportIntervalSeconds > 0 && !last)
+            {
+                out.printf("%5d s: %s%n", elapsed, System.nanoTime() < measureFrom ? "warming up"
+                        : String.format("%d responses, p50 %.1f ms, p99 %.1f ms, max %.1f ms", response.getTotalCount(), 
+                                        millis(response, 50), millis(response, 99), response.getMaxValue() / 1000.0));
+            }
+            if (last || next > end + TimeUnit.MILLISECONDS.toNanos(settings.timeoutMs * 2))
+            {
+                return;
+            }
+        }
+    }
+
+    private void printSummary(Histogram response, Histogram service)
+    {
+        long count = response.getTotalCount();
+        out.println();
+        out.printf("Responses: %d in %d s, %.1f/s%n", count, settings.durationSeconds, (double) count / settings.durationSeconds);
+        out.printf("Sent: %d new, %d duplicate, %d replayed (including warmup)%n", created.get(), duplicates.sum(), replays.sum());
+        if (settings.concurrency <= 0)
+        {
+            out.printf("Most events waiting for a sender: %d%n", maxQueued.get());
+        }
+
+        StringBuilder breakdown = new StringBuilder("Outcomes:");
+        for (Map.Entry<String, LongAdder> outcome : new TreeMap<String, LongAdder>(outcomes).entrySet())
+        {
+            breakdown.append(' ').append(outcome.getKey()).append('=').append(outcome.getValue().sum());
+        }
+        out.println(breakdown);
+
+        out.println("Latency in ms       p50       p90       p99     p99.9       max");
+        if (settings.concurrency <= 0)
+        {
+            printPercentiles("response time", response);
+        }
+        printPercentiles("service time", service);
+    }
+
+    private void printPercentiles(String name, Histogram histogram)
+    {
+        out.printf("%-13s %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, millis(histogram, 50), millis(histogram, 90), 
+                   millis(histogram, 99), millis(histogram, 99.9), histogram.getMaxValue() / 1000.0);
+    }
+
+    private static double millis(Histogram histogram, double percentile)
+    {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        new WebhookLoadGenerator(Settings.parse(args), System.out).run();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed Materials - Property of IBM (c) Copyright IBM Corp. 2021-2022 All Rights Reserved.
+ * 
+ * US Government Users Restricted Rights - Use, duplication or disclosure restricted by GSA ADP Schedule Contract with
+ * IBM Corp.
+ * 
+ * DISCLAIMER OF WARRANTIES :
+ * 
+ * Permission is granted to copy and modify this Sample code, and to distribute modified versions provided that both the
+ * copyright notice, and this permission notice and warranty disclaimer appear in all copies and modified versions.
+ * 
+ * THIS SAMPLE CODE IS LICENSED TO YOU AS-IS. IBM AND ITS SUPPLIERS AND LICENSORS DISCLAIM ALL WARRANTIES, EITHER
+ * EXPRESS OR IMPLIED, IN SUCH SAMPLE CODE, INCLUDING THE WARRANTY OF NON-INFRINGEMENT AND THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE. IN NO EVENT WILL IBM OR ITS LICENSORS OR SUPPLIERS BE LIABLE FOR
+ * ANY DAMAGES ARISING OUT OF THE USE OF OR INABILITY TO USE THE SAMPLE CODE, DISTRIBUTION OF THE SAMPLE CODE, OR
+ * COMBINATION OF THE SAMPLE CODE WITH ANY OTHER CODE. IN NO EVENT SHALL IBM OR ITS LICENSORS AND SUPPLIERS BE LIABLE
+ * FOR ANY LOST REVENUE, LOST PROFITS OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL, INCIDENTAL OR PUNITIVE
+ * DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY OF LIABILITY, EVEN IF IBM OR ITS LICENSORS OR SUPPLIERS HAVE
+ * BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Recovery and compaction of {@link EventSpool} against a local directory.
+ */
+public class EventSpoolTest
+{
+    private static final long SEGMENT_BYTES = 16777216;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void recoversEventsWithoutDoneRecord() throws IOException
+    {
+        EventSpool spool = new EventSpool(directory, SEGMENT_BYTES);
+        long first = spool.append(fields("doc-1"));
+        long second = spool.append(fields("doc-2"));
+        long third = spool.append(fields("doc-3"));
+        spool.markDone(second);
+        spool.close();
+
+        List<EventSpool.Entry> recovered = reopen().takeRecovered();
+
+        assertEquals(2, recovered.size());
+        assertEquals(first, recovered.get(0).sequence);
+        assertArrayEquals(fields("doc-1"), recovered.get(0).fields);
+        assertEquals(third, recovered.get(1).sequence);
+        assertArrayEquals(fields("doc-3"), recovered.get(1).fields);
+    }
+
+    @Test
+    public void recoveryStopsAtRecordFailingItsCrc() throws IOException
+    {
+        EventSpool spool = new EventSpool(directory, SEGMENT_BYTES);
+        spool.append(fields("doc-1"));
+        spool.append(fields("doc-2"));
+        spool.close();
+
+        // Flip the last byte of the second record, in its payload
+        Path segment = segments().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw"))
+        {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xFF);
+        }
+
+        EventSpool reopened = reopen();
+        List<EventSpool.Entry> recovered = reopened.takeRecovered();
+
+        assertEquals(1, recovered.size());
+        assertArrayEquals(fields("doc-1"), recovered.get(0).fields);
+
+        // Events appended after recovery continue the sequence
+        assertTrue(reopened.append(fields("doc-3")) > recovered.get(0).sequence);
+        reopened.close();
+    }
+
+    @Test
+    public void recoveryStopsAtTruncatedRecord() throws IOException
+    {
+        EventSpool spool = new EventSpool(directory, SEGMENT_BYTES);
+        spool.append(fields("doc-1"));
+        spool.append(fields("doc-2"));
+        spool.close();
+
+        // A write interrupted in the middle of the second record
+        Path segment = segments().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw"))
+        {
+            file.setLength(file.length() - 5);
+        }
+
+        List<EventSpool.Entry> recovered = reopen().takeRecovered();
+
+        assertEquals(1, recovered.size());
+        assertArrayEquals(fields("doc-1"), recovered.get(0).fields);
+    }
+
+    @Test
+    public void compactRelocatesPendingEventsAndDeletesSegments() throws IOException
+    {
+        // Every record starts a new segment
+        EventSpool spool = new EventSpool(directory, 1);
+        long first = spool.append(fields("doc-1"));
+        long second = spool.append(fields("doc-2", null));
+        long third = spool.append(fields("doc-3"));
+        spool.markDone(first);
+        spool.markDone(third);
+        Path oldest = segments().get(0);
+        int before = segments().size();
+
+        spool.compact();
+
+        // The pending event was copied to the active segment before its segment was deleted
+        assertTrue(Files.notExists(oldest));
+        assertTrue(segments().size() < before);
+        assertEquals(1, spool.getPendingCount());
+        spool.close();
+
+        List<EventSpool.Entry> recovered = reopen().takeRecovered();
+
+        assertEquals(1, recovered.size());
+        assertEquals(second, recovered.get(0).sequence);
+        assertArrayEquals(fields("doc-2", null), recovered.get(0).fields);
+    }
+
+    @Test
+    public void compactKeepsSegmentsOfNewEvents() throws IOException
+    {
+        EventSpool spool = new EventSpool(directory, SEGMENT_BYTES);
+        spool.append(fields("doc-1"));
+        spool.compact();
+        spool.close();
+
+        assertEquals(1, segments().size());
+        assertEquals(1, reopen().takeRecovered().size());
+    }
+
+    @Test
+    public void compactSkipsSegmentWithTooManyPendingEvents() throws IOException
+    {
+        // More pending events than SPOOL_COMPACT_MAX_RELOCATE in the first segment
+        EventSpool spool = new EventSpool(directory, SEGMENT_BYTES);
+        for (int i = 0; i < 101; i++)
+        {
+            spool.append(fields("doc-" + i));
+        }
+        spool.close();
+
+        // A second segment whose events are all done
+        spool = reopen();
+        spool.markDone(spool.append(fields("doc-done")));
+        spool.close();
+
+        spool = reopen();
+        List<Path> before = segments();
+        spool.compact();
+        spool.close();
+
+        // The stuck first segment is kept, the done segment after it is deleted
+        assertTrue(Files.exists(before.get(0)));
+        assertTrue(Files.notExists(before.get(1)));
+        assertEquals(101, reopen().takeRecovered().size());
+    }
+
+    @Test
+    public void failedEventIsNotRecovered() throws IOException
+    {
+        EventSpool spool = new EventSpool(directory, SEGMENT_BYTES);
+        long first = spool.append(fields("doc-1"));
+        long second = spool.append(fields("doc-2"));
+        spool.markFailed(first, "Error retrieving annotation JSON");
+        spool.close();
+
+        List<EventSpool.Entry> recovered = reopen().takeRecovered();
+
+        assertEquals(1, recovered.size());
+        assertEquals(second, recovered.get(0).sequence);
+    }
+
+    private EventSpool reopen() throws IOException
+    {
+        return new EventSpool(directory, SEGMENT_BYTES);
+    }
+
+    private List<Path> segments() throws IOException
+    {
+        List<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "spool-*.log"))
+        {
+            for (Path path : stream)
+            {
+                if (Files.size(path) > 0)
+                {
+                    files.add(path);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static String[] fields(String documentId)
+    {
+        return fields(documentId, "admin");
+    }
+
+    private static String[] fields(String documentId, String initiatingUser)
+    {
+        return new String[] { "registration", "2024-01-01T00:00:00Z", "OS1", documentId, "FINALIZED", "subscription", initiatingUser };
+    }
+}